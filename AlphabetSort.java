@@ -1,39 +1,281 @@
-import java.util.*;
-
-/**
- * AlphabetSort takes input from stdin and prints to stdout.
- * The first line of input is the alphabet permutation.
- * The the remaining lines are the words to be sorted.
- * <p>
- * The output should be the sorted words, each on its own line,
- * printed to std out.
- */
-public class AlphabetSort {
-
-    /**
-     * Reads input from standard input and prints out the input words in
-     * alphabetical order.
-     *
-     * @param args ignored
-     */
-    public static void main(String[] args) {
-
-        Scanner sc = new Scanner(System.in);
-        String order = sc.nextLine();
-        Trie words = new Trie();
-        String result = "";
-
-        while (sc.hasNextLine()) {
-            String next = sc.nextLine();
-            words.insert(next);
-        }
-        ArrayList<String> wordsArr = words.orderedWords(order);
-        for (int i = 0; i < wordsArr.size(); i++) {
-            if (i != wordsArr.size() - 1) {
-                System.out.println(wordsArr.get(i));
-            } else {
-                System.out.print(wordsArr.get(i));
-            }
-        }
-    }
-}
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * AlphabetSort takes input from stdin and prints to stdout.
+ * The first line of input is the alphabet permutation.
+ * The the remaining lines are the words to be sorted.
+ * <p>
+ * The output should be the sorted words, each on its own line,
+ * printed to std out.
+ * <p>
+ * Input larger than the memory budget is sorted externally: every chunk
+ * that fills the budget is sorted and spilled to a temporary run file,
+ * and the runs are merged into the output. The budget, in bytes or with
+ * a k, m or g suffix, is read from the alphabetsort.memory system
+ * property and defaults to half the maximum heap size. Setting the
+ * alphabetsort.parallel system property to true sorts every chunk on all
+ * cores.
+ */
+public class AlphabetSort {
+
+    // chars buffered on each side of the sort
+    private static final int BUFFER = 1 << 16;
+    // largest number of runs merged at once
+    private static final int FAN_IN = 64;
+
+    /**
+     * Consumes the words of a merge in sorted order.
+     */
+    private interface KeyWriter {
+        void write(char[] key) throws IOException;
+    }
+
+    /**
+     * Reads input from standard input and prints out the input words in
+     * alphabetical order. Words are sorted by an AlphabetSorter rather
+     * than a Trie, and printed through one large buffer.
+     *
+     * @param args ignored
+     * @throws IllegalArgumentException if the alphabet is empty or repeats
+     *                                  a char, a word is empty, or there are
+     *                                  no words.
+     */
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in), BUFFER);
+        String order = in.readLine();
+        if (order == null) {
+            throw new NoSuchElementException("No line found");
+        }
+        AlphabetSorter sorter = new AlphabetSorter(order);
+        long budget = memoryBudget();
+        boolean parallel = Boolean.getBoolean("alphabetsort.parallel");
+
+        char[][] keys = new char[1024][];
+        int n = 0;
+        long used = 0;
+        boolean empty = true;
+        List<File> runs = new ArrayList<>();
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                empty = false;
+                char[] key = sorter.encode(line);
+                if (key == null) {
+                    continue;
+                }
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, 2 * n);
+                }
+                keys[n++] = key;
+                used += footprint(key);
+                if (used >= budget) {
+                    sorter.sort(keys, n, parallel);
+                    runs.add(spill(keys, n));
+                    Arrays.fill(keys, 0, n, null);
+                    n = 0;
+                    used = 0;
+                }
+            }
+            if (empty) {
+                throw new IllegalArgumentException();
+            }
+
+            sorter.sort(keys, n, parallel);
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER);
+            if (runs.isEmpty()) {
+                sorter.write(keys, 0, n, null, out);
+            } else {
+                if (n > 0) {
+                    runs.add(spill(keys, n));
+                }
+                keys = null;
+                merge(runs, sorter, out);
+            }
+            out.flush();
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the memory budget in bytes from the alphabetsort.memory
+     * system property.
+     *
+     * @throws IllegalArgumentException if the property is not a size.
+     */
+    static long memoryBudget() {
+        String value = System.getProperty("alphabetsort.memory");
+        if (value == null) {
+            return Runtime.getRuntime().maxMemory() / 2;
+        }
+        value = value.trim().toLowerCase();
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long budget = Long.parseLong(value) * unit;
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        return budget;
+    }
+
+    /**
+     * Returns roughly how many bytes key takes while it is sorted: the
+     * array itself and its slots in the key and scratch arrays.
+     */
+    private static long footprint(char[] key) {
+        return 32 + 2L * key.length;
+    }
+
+    /**
+     * Writes sorted keys[0 .. n - 1] to a new run file, each distinct key
+     * once, and returns the file.
+     */
+    private static File spill(char[][] keys, int n) throws IOException {
+        File run = File.createTempFile("alphabetsort", ".run");
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), BUFFER))) {
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || AlphabetSorter.compare(keys[i - 1], keys[i]) != 0) {
+                    writeKey(keys[i], out);
+                }
+            }
+        }
+        return run;
+    }
+
+    private static void writeKey(char[] key, DataOutputStream out) throws IOException {
+        // whole keys go through the buffer at once; writeChar would take
+        // its lock once per byte
+        byte[] bytes = new byte[2 * key.length];
+        for (int i = 0; i < key.length; i++) {
+            bytes[2 * i] = (byte) (key[i] >>> 8);
+            bytes[2 * i + 1] = (byte) key[i];
+        }
+        out.writeInt(key.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the next key of run, or null at its end.
+     */
+    private static char[] readKey(DataInputStream run) throws IOException {
+        int length;
+        try {
+            length = run.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] bytes = new byte[2 * length];
+        run.readFully(bytes);
+        char[] key = new char[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = (char) ((bytes[2 * i] & 0xff) << 8 | bytes[2 * i + 1] & 0xff);
+        }
+        return key;
+    }
+
+    /**
+     * Merges the sorted runs and writes each distinct word once to out.
+     * Runs beyond FAN_IN are first merged in groups into longer runs, so
+     * no more than FAN_IN files are open at a time.
+     */
+    private static void merge(List<File> runs, AlphabetSorter sorter, Writer out)
+            throws IOException {
+        while (runs.size() > FAN_IN) {
+            List<File> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i + FAN_IN, runs.size()));
+                File run = File.createTempFile("alphabetsort", ".run");
+                run.deleteOnExit();
+                merged.add(run);
+                try (DataOutputStream runOut = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(run), BUFFER))) {
+                    merge(group, key -> writeKey(key, runOut));
+                }
+                for (File done : group) {
+                    done.delete();
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+
+        String separator = System.lineSeparator();
+        boolean[] first = {true};
+        merge(runs, key -> {
+            if (!first[0]) {
+                out.write(separator);
+            }
+            first[0] = false;
+            sorter.write(key, out);
+        });
+    }
+
+    /**
+     * Merges the sorted runs with a heap of their next keys and passes
+     * each distinct key to out once.
+     */
+    private static void merge(List<File> runs, KeyWriter out) throws IOException {
+        DataInputStream[] inputs = new DataInputStream[runs.size()];
+        char[][] heads = new char[runs.size()][];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, runs.size()),
+                (a, b) -> AlphabetSorter.compare(heads[a], heads[b]));
+        try {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(runs.get(i)), BUFFER));
+                heads[i] = readKey(inputs[i]);
+                if (heads[i] != null) {
+                    heap.add(i);
+                }
+            }
+            char[] previous = null;
+            while (!heap.isEmpty()) {
+                int i = heap.poll();
+                if (previous == null || AlphabetSorter.compare(previous, heads[i]) != 0) {
+                    out.write(heads[i]);
+                    previous = heads[i];
+                }
+                heads[i] = readKey(inputs[i]);
+                if (heads[i] != null) {
+                    heap.add(i);
+                }
+            }
+        } finally {
+            for (DataInputStream input : inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Sorts words under a custom alphabet order, the engine behind
+ * AlphabetSort. Every word is encoded once as a char array of ranks,
+ * one plus the position of each char in the alphabet, so the sort only
+ * compares small numbers and 0 can stand for the end of a word. Encoded
+ * words are sorted by MSD radix sort, which switches to insertion sort
+ * for small subarrays, and decoded again while they are written out.
+ *
+ * @author
+ */
+public class AlphabetSorter {
+
+    // subarrays this small are insertion sorted
+    private static final int CUTOFF = 15;
+
+    private final char[] order;
+    // rank of each char, or 0 if the char is not in the alphabet
+    private final char[] ranks = new char[Character.MAX_VALUE + 1];
+
+    /**
+     * Creates a sorter for the alphabet given as a permutation of its
+     * chars.
+     *
+     * @throws IllegalArgumentException if order is empty or repeats a char.
+     */
+    public AlphabetSorter(String order) {
+        if (order.isEmpty() || order.length() > Character.MAX_VALUE) {
+            throw new IllegalArgumentException();
+        }
+        this.order = order.toCharArray();
+        for (int i = 0; i < this.order.length; i++) {
+            if (ranks[this.order[i]] != 0) {
+                throw new IllegalArgumentException();
+            }
+            ranks[this.order[i]] = (char) (i + 1);
+        }
+    }
+
+    /**
+     * Returns the ranks of the chars of word, or null if word has a char
+     * outside the alphabet and is left out of the output.
+     *
+     * @throws IllegalArgumentException if word is empty.
+     */
+    public char[] encode(String word) {
+        if (word.isEmpty()) {
+            throw new IllegalArgumentException("Empty string.");
+        }
+        char[] key = new char[word.length()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = ranks[word.charAt(i)];
+            if (key[i] == 0) {
+                return null;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Compares two encoded words in alphabet order.
+     */
+    public static int compare(char[] a, char[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return a[i] - b[i];
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Sorts keys[0 .. n - 1], which are encoded words.
+     */
+    public void sort(char[][] keys, int n) {
+        sort(keys, n, false);
+    }
+
+    /**
+     * Sorts keys[0 .. n - 1], which are encoded words, optionally on all
+     * cores. The parallel sort partitions the keys by their first rank,
+     * which already puts the partitions in alphabet order, and then sorts
+     * every partition as its own task.
+     */
+    public void sort(char[][] keys, int n, boolean parallel) {
+        char[][] aux = new char[n][];
+        if (!parallel || n <= CUTOFF) {
+            sort(keys, 0, n, aux);
+            return;
+        }
+        int radix = order.length + 1;
+        int[] count = new int[radix + 1];
+        for (int i = 0; i < n; i++) {
+            count[keys[i][0] + 1]++;
+        }
+        for (int r = 0; r < radix; r++) {
+            count[r + 1] += count[r];
+        }
+        int[] next = Arrays.copyOf(count, radix);
+        for (int i = 0; i < n; i++) {
+            aux[next[keys[i][0]]++] = keys[i];
+        }
+        System.arraycopy(aux, 0, keys, 0, n);
+
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int r = 1; r < radix; r++) {
+            int lo = count[r];
+            int hi = count[r + 1] - 1;
+            if (hi > lo) {
+                tasks.add(ForkJoinTask.adapt(() -> sort(keys, lo, hi, 1, aux)));
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Sorts keys[from .. to - 1], using aux[from .. to - 1] as scratch
+     * space.
+     */
+    public void sort(char[][] keys, int from, int to, char[][] aux) {
+        sort(keys, from, to - 1, 0, aux);
+    }
+
+    /**
+     * Returns the rank at depth d of key, or 0 past its end.
+     */
+    private static int rankAt(char[] key, int d) {
+        return d < key.length ? key[d] : 0;
+    }
+
+    /**
+     * Sorts keys[lo .. hi], which agree on their first d ranks, by the
+     * rank at depth d and then recursively on each group.
+     */
+    private void sort(char[][] keys, int lo, int hi, int d, char[][] aux) {
+        if (hi <= lo + CUTOFF) {
+            insertionSort(keys, lo, hi, d);
+            return;
+        }
+        int radix = order.length + 1;
+        int[] count = new int[radix + 1];
+        for (int i = lo; i <= hi; i++) {
+            count[rankAt(keys[i], d) + 1]++;
+        }
+        for (int r = 0; r < radix; r++) {
+            count[r + 1] += count[r];
+        }
+        for (int i = lo; i <= hi; i++) {
+            aux[lo + count[rankAt(keys[i], d)]++] = keys[i];
+        }
+        System.arraycopy(aux, lo, keys, lo, hi - lo + 1);
+
+        // count[r] now ends group r; group 0 holds the words that end at d
+        for (int r = 1; r < radix; r++) {
+            if (count[r] - count[r - 1] > 1) {
+                sort(keys, lo + count[r - 1], lo + count[r] - 1, d + 1, aux);
+            }
+        }
+    }
+
+    private static void insertionSort(char[][] keys, int lo, int hi, int d) {
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(keys[j], keys[j - 1], d); j--) {
+                char[] tmp = keys[j];
+                keys[j] = keys[j - 1];
+                keys[j - 1] = tmp;
+            }
+        }
+    }
+
+    private static boolean less(char[] a, char[] b, int d) {
+        int n = Math.min(a.length, b.length);
+        for (int i = d; i < n; i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i];
+            }
+        }
+        return a.length < b.length;
+    }
+
+    /**
+     * Writes the word encoded as key.
+     */
+    public void write(char[] key, Writer out) throws IOException {
+        // one write per word; Writer.write(int) takes a lock per char
+        char[] word = new char[key.length];
+        for (int i = 0; i < key.length; i++) {
+            word[i] = order[key[i] - 1];
+        }
+        out.write(word);
+    }
+
+    /**
+     * Writes sorted keys[from .. to - 1] to out, one word per line and
+     * each distinct word once. previous is the last word written before,
+     * or null; the line separator goes before every word but the very
+     * first, so the output does not end with one.
+     *
+     * @return The last word written, or previous if none was.
+     */
+    public char[] write(char[][] keys, int from, int to, char[] previous, Writer out)
+            throws IOException {
+        String separator = System.lineSeparator();
+        for (int i = from; i < to; i++) {
+            if (previous != null && compare(previous, keys[i]) == 0) {
+                continue;
+            }
+            if (previous != null) {
+                out.write(separator);
+            }
+            write(keys[i], out);
+            previous = keys[i];
+        }
+        return previous;
+    }
+}
@@ -1,4 +1,10 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 /**
  * Implements autocomplete on prefixes for a given dictionary of terms and weights.
@@ -7,7 +13,41 @@ import java.util.*;
  */
 public class Autocomplete {
 
+    // search scratch space, one per querying thread
+    private static final ThreadLocal<SearchContext> CONTEXT =
+            ThreadLocal.withInitial(SearchContext::new);
+
+    // fewest prefixes a parallel batch hands to one task
+    private static final int BATCH_RANGE = 1024;
+
+    /**
+     * Option that matches prefixes regardless of case and accents, so that
+     * "sao p" finds "S&atilde;o Paulo". Results are still the terms as given.
+     */
+    public static final int FOLD_CASE_AND_ACCENTS = 1;
+
+    /**
+     * Option that builds an InfixIndex for infixTopMatches, which finds
+     * terms containing the query anywhere.
+     */
+    public static final int INFIX_SEARCH = 2;
+
+    /**
+     * Option that also matches prefixes against every later word of a
+     * term, so that "york" finds "New York". A term matching at several
+     * words is returned once, ranked by its own weight.
+     */
+    public static final int TOKEN_STARTS = 4;
+
     private Trie dictionary;
+    private FrozenTrie frozen;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    // null unless statistics are enabled
+    private volatile QueryStats stats;
+    // whether INFIX_SEARCH was asked for; the index is null after a change
+    // until the next infix query rebuilds it
+    private boolean infixSearch;
+    private volatile InfixIndex infix;
 
     /**
      * Initializes required data structures from parallel arrays.
@@ -16,34 +56,265 @@ public class Autocomplete {
      * @param weights Array of weights.
      */
     public Autocomplete(String[] terms, double[] weights) {
+        this(terms, weights, false);
+    }
+
+    /**
+     * Initializes required data structures from parallel arrays, optionally
+     * building the trie on all cores.
+     *
+     * @param terms    Array of terms.
+     * @param weights  Array of weights.
+     * @param parallel Whether to build the subtree of each leading
+     *                 character concurrently.
+     */
+    public Autocomplete(String[] terms, double[] weights, boolean parallel) {
+        this(terms, weights, parallel, 0);
+    }
+
+    /**
+     * Initializes required data structures from parallel arrays with the
+     * given options.
+     *
+     * @param terms    Array of terms.
+     * @param weights  Array of weights.
+     * @param parallel Whether to build the subtree of each leading
+     *                 character concurrently.
+     * @param options  Bitwise or of option constants such as
+     *                 FOLD_CASE_AND_ACCENTS, or 0.
+     */
+    public Autocomplete(String[] terms, double[] weights, boolean parallel, int options) {
         if (terms.length != weights.length) {
             throw new IllegalArgumentException();
         }
+        for (double weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException();
+            }
+        }
 
-        HashSet<String> testSet = new HashSet<>(terms.length);
+        dictionary = new Trie((options & FOLD_CASE_AND_ACCENTS) != 0,
+                (options & TOKEN_STARTS) != 0);
+        dictionary.insertAll(terms, weights, parallel);
+        if ((options & INFIX_SEARCH) != 0) {
+            infixSearch = true;
+            infix = new InfixIndex(dictionary);
+        }
+    }
 
-        dictionary = new Trie();
-        //dictionary.setWordMapCap(terms.length);
+    /**
+     * Wraps an already built trie without copying it.
+     */
+    Autocomplete(Trie dictionary) {
+        this.dictionary = dictionary;
+    }
 
+    private Autocomplete(FrozenTrie frozen) {
+        this.frozen = frozen;
+    }
 
-        for (int i = 0; i < terms.length; i++) {
-            if (weights[i] < 0) {
-                throw new IllegalArgumentException();
-            }
+    /**
+     * Writes the dictionary to a snapshot file that open() maps back in
+     * without rebuilding the trie. Does not freeze this instance. The file
+     * is replaced in one step, so it may be the snapshot this dictionary
+     * was opened from.
+     *
+     * @param file Snapshot file to create or overwrite.
+     */
+    public void save(Path file) throws IOException {
+        (frozen != null ? frozen : new FrozenTrie(dictionary)).write(file);
+    }
 
-            if (testSet.contains(terms[i])) {
-                throw new IllegalArgumentException();
-            }
-            dictionary.insert(terms[i], weights[i]);
-            testSet.add(terms[i]);
+    /**
+     * Opens a snapshot written by save(). The result is frozen and answers
+     * queries straight from the memory-mapped file.
+     *
+     * @param file   Snapshot file.
+     * @param verify Whether to check the snapshot's checksum first.
+     * @throws IOException if the file cannot be read or is not a valid
+     *                     snapshot.
+     */
+    public static Autocomplete open(Path file, boolean verify) throws IOException {
+        return new Autocomplete(FrozenTrie.open(file, verify));
+    }
 
+    /**
+     * Loads a dictionary file: either a snapshot written by save(), which is
+     * mapped and verified, or a text file of weight/term lines, which is
+     * parsed and built into a new trie.
+     *
+     * @param file     Snapshot or text dictionary.
+     * @param parallel Whether to parse and build a text dictionary on all
+     *                 cores.
+     */
+    public static Autocomplete load(Path file, boolean parallel) throws IOException {
+        if (FrozenTrie.isSnapshot(file)) {
+            return open(file, true);
         }
+        DictionaryLoader loader = DictionaryLoader.read(file, parallel);
+        return new Autocomplete(loader.getTerms(), loader.getWeights(), parallel);
     }
 
+    /**
+     * Returns the trie holding the dictionary, or null once the
+     * dictionary has been frozen.
+     */
     public Trie getDictionary() {
         return dictionary;
     }
 
+    /**
+     * Compiles the dictionary into a FrozenTrie and answers every later
+     * query from it. The original Trie is released, so the dictionary can
+     * no longer be modified afterwards. Calling this twice has no effect.
+     */
+    public void freeze() {
+        if (frozen == null) {
+            if (infixSearch) {
+                infixIndex();
+            }
+            frozen = new FrozenTrie(dictionary);
+            dictionary = null;
+        }
+    }
+
+    /**
+     * Caches the top k matches at every trie node up to maxDepth, so that
+     * topMatches for a cached prefix only walks down to its node and copies
+     * the answer. Queries asking for more than k matches still search.
+     * Must be called before freeze(); the cache is carried into the frozen
+     * dictionary and into snapshots written by save().
+     *
+     * @param k        Number of matches cached per node.
+     * @param maxDepth Longest prefix length that is cached.
+     */
+    public void cacheTopMatches(int k, int maxDepth) {
+        if (frozen != null) {
+            throw new IllegalStateException("Dictionary is frozen.");
+        }
+        dictionary.precomputeTopMatches(k, maxDepth);
+    }
+
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Returns the frozen dictionary, or null if it has not been frozen.
+     */
+    FrozenTrie getFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Adds a term to the dictionary.
+     *
+     * @return true if term was added, false if it was already present.
+     * @throws IllegalArgumentException if term is empty or weight is
+     *         negative.
+     * @throws IllegalStateException    if the dictionary is frozen.
+     */
+    public boolean insert(String term, double weight) {
+        if (frozen != null) {
+            throw new IllegalStateException("Dictionary is frozen.");
+        }
+        if (!(weight >= 0)) {
+            throw new IllegalArgumentException();
+        }
+        if (!dictionary.insert(term, weight)) {
+            return false;
+        }
+        changed(term);
+        return true;
+    }
+
+    /**
+     * Removes a term from the dictionary.
+     *
+     * @return true if term was removed, false if it was not present.
+     * @throws IllegalStateException if the dictionary is frozen.
+     */
+    public boolean remove(String term) {
+        if (frozen != null) {
+            throw new IllegalStateException("Dictionary is frozen.");
+        }
+        if (!dictionary.remove(term)) {
+            return false;
+        }
+        changed(term);
+        return true;
+    }
+
+    /**
+     * Starts recording statistics of topMatches queries, or keeps the ones
+     * already being recorded, and returns them.
+     */
+    public synchronized QueryStats enableStats() {
+        if (stats == null) {
+            stats = new QueryStats();
+        }
+        return stats;
+    }
+
+    /**
+     * Stops recording statistics. Queries then pay nothing for them.
+     */
+    public synchronized void disableStats() {
+        stats = null;
+    }
+
+    /**
+     * Returns the statistics being recorded, or null if they are disabled.
+     */
+    public QueryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Registers a listener that is called with the term after every
+     * insert, remove or weight change, once the dictionary reflects it.
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    private void changed(String term) {
+        infix = null;
+        for (Consumer<String> listener : listeners) {
+            listener.accept(term);
+        }
+    }
+
+    /**
+     * Sets the weight of a term in the dictionary.
+     *
+     * @throws IllegalArgumentException if term is not in the dictionary or
+     *         weight is negative.
+     * @throws IllegalStateException    if the dictionary is frozen.
+     */
+    public void updateWeight(String term, double weight) {
+        if (frozen != null) {
+            throw new IllegalStateException("Dictionary is frozen.");
+        }
+        dictionary.updateWeight(term, weight);
+        changed(term);
+    }
+
+    /**
+     * Adds delta to the weight of a term in the dictionary.
+     *
+     * @throws IllegalArgumentException if term is not in the dictionary or
+     *         its weight would become negative.
+     * @throws IllegalStateException    if the dictionary is frozen.
+     */
+    public void incrementWeight(String term, double delta) {
+        if (frozen != null) {
+            throw new IllegalStateException("Dictionary is frozen.");
+        }
+        dictionary.incrementWeight(term, delta);
+        changed(term);
+    }
+
     /**
      * Find the weight of a given term. If it is not in the dictionary, return 0.0
      *
@@ -51,11 +322,19 @@ public class Autocomplete {
      * @return
      */
     public double weightOf(String term) {
+        if (frozen != null) {
+            return frozen.weightOf(term);
+        }
         Trie.Node node = dictionary.getLast(term);
-        if (node != null) {
-            return node.getWeight();
+        if (node == null) {
+            return 0.0;
         }
-        return 0.0;
+        if (dictionary.foldsKeys()) {
+            // other spellings of the same key do not count
+            int id = dictionary.idAt(node, term);
+            return id < 0 ? 0.0 : dictionary.getTermWeight(id);
+        }
+        return node.getWeight();
     }
 
     /**
@@ -65,28 +344,18 @@ public class Autocomplete {
      * @return Best (highest weight) matching string in the dictionary.
      */
     public String topMatch(String prefix) {
-
-        Trie.Node head;
-        String result = "";
-
-        head = prefix.equals("") ? dictionary.getRoot() : dictionary.getRoot().getLast(prefix);
-        if (head == null) {
-            return null;
+        if (frozen != null) {
+            return frozen.topMatch(prefix);
         }
-        result = prefix;
 
-        // if head is null, just getLInks from dictionary.
-        while (head.getWeight() != head.getMaxWeight()) {
-            HashMap<Character, Trie.Node> s = head.getLinks();
-            Character k;
-            k = s.keySet().stream()
-                    .max((a, b) -> Double.compare(s.get(a).getMaxWeight(), s.get(b).getMaxWeight()))
-                    .get();
-            result += k;
-            head = s.get(k);
-        }
+        Trie.Node head = dictionary.getLast(prefix);
 
-        return result;
+        // follow the heaviest child down to the word that set maxWeight
+        while (head != null && !(dictionary.heaviestIdAt(head) >= 0
+                && dictionary.getTermWeight(dictionary.heaviestIdAt(head)) == head.getMaxWeight())) {
+            head = head.getHeaviest();
+        }
+        return head == null ? null : getTerm(dictionary.heaviestIdAt(head));
     }
 
     /**
@@ -101,81 +370,410 @@ public class Autocomplete {
         if (k < 0) {
             throw new IllegalArgumentException();
         }
+        SearchContext context = CONTEXT.get();
+        int count = search(prefix, k, context);
+        int[] ids = context.getResults();
 
-        Trie.Node head = prefix.equals("") ? dictionary.getRoot()
-                : dictionary.getRoot().getLast(prefix); //last node in prefix
-        if (head == null) {
-            return new ArrayList<String>();
+        ArrayList<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(getTerm(ids[i]));
         }
+        return result;
+    }
 
-        PriorityQueue<Trie.Node> fringe = new PriorityQueue<>((a, b) ->
-                -1 * Double.compare(a.getMaxWeight(), b.getMaxWeight()));
+    /**
+     * Writes the top k matching terms into out, in descending order of weight,
+     * and returns how many were found. Allocates nothing once the calling
+     * thread has run a few queries.
+     *
+     * @param prefix Input prefix to match against.
+     * @param k      Maximum number of matches.
+     * @param out    Buffer receiving the matches; must hold at least k terms.
+     * @return Number of matches written to out.
+     */
+    public int topMatches(String prefix, int k, String[] out) {
+        if (k < 0 || out.length < k) {
+            throw new IllegalArgumentException();
+        }
+        SearchContext context = CONTEXT.get();
+        int count = search(prefix, k, context);
+        int[] ids = context.getResults();
+        for (int i = 0; i < count; i++) {
+            out[i] = getTerm(ids[i]);
+        }
+        return count;
+    }
 
-        PriorityQueue<Trie.Node> bestSoFar = new PriorityQueue<>((a, b) ->
-                Double.compare(a.getWeight(), b.getWeight()));
+    /**
+     * Returns the top k matches of every prefix, in the order of prefixes.
+     *
+     * @param prefixes Input prefixes to match against.
+     * @param k        Maximum number of matches per prefix.
+     */
+    public List<List<String>> topMatchesBatch(List<String> prefixes, int k) {
+        return topMatchesBatch(prefixes, k, false);
+    }
 
-        PriorityQueue<Double> weights = new PriorityQueue<>();
+    /**
+     * Returns the top k matches of every prefix, in the order of prefixes.
+     * The prefixes are answered in sorted order, so consecutive queries
+     * only walk down from where their common prefix ends, and a repeated
+     * prefix is only searched once.
+     *
+     * @param prefixes Input prefixes to match against.
+     * @param k        Maximum number of matches per prefix.
+     * @param parallel Whether to answer ranges of the sorted prefixes on
+     *                 all cores.
+     */
+    public List<List<String>> topMatchesBatch(List<String> prefixes, int k, boolean parallel) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        int n = prefixes.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            if (prefixes.get(i) == null) {
+                throw new IllegalArgumentException();
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> prefixes.get(a).compareTo(prefixes.get(b)));
 
-        if (head.getIsWord()) {
-            bestSoFar.add(head);
+        ArrayList<List<String>> results = new ArrayList<>(Collections.nCopies(n, null));
+        int ranges = 1;
+        if (parallel) {
+            ranges = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(),
+                    n / BATCH_RANGE));
+        }
+        if (ranges == 1) {
+            searchBatch(prefixes, order, 0, n, k, results);
+            return results;
         }
-        // add links to PQ
-        double currMax = 0;
-        double smallestWeight = 0.0;
-        Trie.Node n;
-        for (Map.Entry<Character, Trie.Node> entry : head.getLinks().entrySet()) {
-            n = entry.getValue();
-            currMax = n.getMaxWeight();
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int r = 0; r < ranges; r++) {
+            int from = (int) ((long) n * r / ranges);
+            int to = (int) ((long) n * (r + 1) / ranges);
+            tasks.add(ForkJoinTask.adapt(() -> searchBatch(prefixes, order, from, to, k, results)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        return results;
+    }
 
-            if (fringe.size() < k || currMax > smallestWeight) {
-                fringe.add(n);
-                weights.add(n.getMaxWeight());
-                smallestWeight = weights.peek();
-                if (weights.size() > k) {
-                    weights.poll();
+    /**
+     * Answers the prefixes at order[from..to), which are sorted, keeping the
+     * path of nodes to the previous prefix.
+     */
+    private void searchBatch(List<String> prefixes, Integer[] order, int from, int to, int k,
+                             List<List<String>> results) {
+        SearchContext context = CONTEXT.get();
+        // path[i] is the node reached by the first i characters of previous,
+        // for i up to depth
+        Trie.Node[] path = new Trie.Node[16];
+        int[] frozenPath = new int[16];
+        path[0] = dictionary != null ? dictionary.getRoot() : null;
+        frozenPath[0] = frozen != null ? frozen.getRoot() : -1;
+        int depth = 0;
+        String previous = null;
+        List<String> previousResult = null;
+
+        for (int j = from; j < to; j++) {
+            String prefix = prefixes.get(order[j]);
+            if (prefix.equals(previous)) {
+                results.set(order[j], new ArrayList<>(previousResult));
+                continue;
+            }
+            if (previous != null) {
+                int common = 0;
+                int max = Math.min(depth, prefix.length());
+                while (common < max && prefix.charAt(common) == previous.charAt(common)) {
+                    common++;
                 }
+                depth = common;
             }
+            if (path.length <= prefix.length()) {
+                path = Arrays.copyOf(path, 2 * prefix.length());
+                frozenPath = Arrays.copyOf(frozenPath, 2 * prefix.length());
+            }
+            while (depth < prefix.length()) {
+                char c = keyOf(prefix.charAt(depth));
+                if (frozen != null) {
+                    frozenPath[depth + 1] = frozen.getLink(frozenPath[depth], depth, c);
+                    if (frozenPath[depth + 1] < 0) {
+                        break;
+                    }
+                } else {
+                    path[depth + 1] = path[depth].getLink(c);
+                    if (path[depth + 1] == null) {
+                        break;
+                    }
+                }
+                depth++;
+            }
+
+            int count = 0;
+            if (depth == prefix.length()) {
+                count = frozen != null ? frozen.topMatches(frozenPath[depth], k, context)
+                        : search(path[depth], k, context);
+            }
+            int[] ids = context.getResults();
+            ArrayList<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(getTerm(ids[i]));
+            }
+            results.set(order[j], result);
+            previous = prefix;
+            previousResult = result;
+        }
+    }
+
+    /**
+     * Returns the top k terms, in descending order of weight, that start
+     * with a string within maxEdits insertions, deletions or substitutions
+     * of prefix. Exact matches are not ranked above fuzzy ones.
+     *
+     * @param prefix   Input prefix to match against, possibly mistyped.
+     * @param k        Maximum number of matches.
+     * @param maxEdits Largest edit distance allowed.
+     */
+    public Iterable<String> fuzzyTopMatches(String prefix, int k, int maxEdits) {
+        if (k < 0 || maxEdits < 0) {
+            throw new IllegalArgumentException();
         }
+        SearchContext context = CONTEXT.get();
+        String query = keyOf(prefix);
+        int count = frozen != null ? frozen.fuzzyTopMatches(query, k, maxEdits, context)
+                : fuzzySearch(query, k, maxEdits, context);
+        int[] ids = context.getResults();
+
+        ArrayList<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(getTerm(ids[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the top k terms that contain query anywhere, not just at
+     * their start, in descending order of weight.
+     *
+     * @param query Input string to match against.
+     * @param k     Maximum number of matches.
+     * @throws IllegalStateException if the Autocomplete was not built with
+     *                               INFIX_SEARCH.
+     */
+    public Iterable<String> infixTopMatches(String query, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        InfixIndex index = infix;
+        if (index == null) {
+            index = infixIndex();
+        }
+        SearchContext context = CONTEXT.get();
+        int count = index.topMatches(query, k, context);
+        int[] ids = context.getResults();
+
+        ArrayList<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(index.getTerm(ids[i]));
+        }
+        return result;
+    }
 
-        while (!fringe.isEmpty() && (bestSoFar.size() <= k
-                || fringe.peek().getMaxWeight() > bestSoFar.peek().getMaxWeight())) {
-            n = fringe.poll();
+    /**
+     * Returns the infix index, rebuilding it if the dictionary changed
+     * since it was built.
+     */
+    private synchronized InfixIndex infixIndex() {
+        if (!infixSearch) {
+            throw new IllegalStateException("No infix index.");
+        }
+        if (infix == null && dictionary != null) {
+            infix = new InfixIndex(dictionary);
+        }
+        return infix;
+    }
 
-            if (n.getIsWord()) {
-                if (bestSoFar.size() < k || bestSoFar.peek().getWeight() < n.getWeight()) {
-                    bestSoFar.add(n);
+    /**
+     * Best-first search over the trie that carries, for every node on the
+     * fringe, the row of edit distances between its path and each prefix
+     * of the query. Branches whose row exceeds maxEdits everywhere are cut,
+     * and as in search(), so are branches whose maxWeight cannot beat the
+     * k-th best word. Once a node's path is within maxEdits of the whole
+     * query, every word below it matches and its row is dropped.
+     */
+    private int fuzzySearch(String prefix, int k, int maxEdits, SearchContext context) {
+        context.reset();
+        if (k == 0) {
+            return 0;
+        }
+        PriorityQueue<FuzzyEntry> fringe = new PriorityQueue<>();
+        Trie.Node root = dictionary.getRoot();
+        fringe.add(new FuzzyEntry(root, root.getMaxWeight(), EditRows.first(prefix)));
+        while (!fringe.isEmpty()) {
+            FuzzyEntry e = fringe.poll();
+            // nothing left in the fringe can beat the k-th best word
+            if (context.numBest() == k && e.maxWeight <= context.minBest()) {
+                break;
+            }
+            int[] row = e.row;
+            if (row != null && EditRows.matchesAll(row, maxEdits)) {
+                row = null;
+            }
+            Trie.Node n = e.node;
+            if (row == null) {
+                offerTerms(n, k, context);
+            }
+            for (int i = 0; i < n.numLinks(); i++) {
+                Trie.Node child = n.linkAt(i);
+                if (context.numBest() == k && child.getMaxWeight() <= context.minBest()) {
+                    continue;
                 }
-                //remove element if it is the smallest one and we reached k
-                if (bestSoFar.size() > k) {
-                    bestSoFar.poll();
+                int[] next = row;
+                if (row != null) {
+                    next = EditRows.next(row, prefix, n.keyAt(i), maxEdits);
+                    if (next == null) {
+                        continue;
+                    }
                 }
+                fringe.add(new FuzzyEntry(child, child.getMaxWeight(), next));
             }
+        }
+        return context.drainBest();
+    }
 
-            for (Map.Entry<Character, Trie.Node> entry : n.getLinks().entrySet()) {
-                n = entry.getValue();
-                currMax = n.getMaxWeight();
+    /**
+     * A fringe entry of the fuzzy search, ordered heaviest first.
+     */
+    private static final class FuzzyEntry implements Comparable<FuzzyEntry> {
+
+        final Trie.Node node;
+        final double maxWeight;
+        // edit distance row of the node's path, or null once every word
+        // below the node matches
+        final int[] row;
+
+        FuzzyEntry(Trie.Node node, double maxWeight, int[] row) {
+            this.node = node;
+            this.maxWeight = maxWeight;
+            this.row = row;
+        }
 
-                if (fringe.size() < k || currMax >= smallestWeight) {
-//                    smallestWeight = currMax < smallestWeight
-//                            ? currMax : smallestWeight;
-                    fringe.add(n);
+        @Override
+        public int compareTo(FuzzyEntry other) {
+            return -1 * Double.compare(maxWeight, other.maxWeight);
+        }
+    }
 
-                    if (!weights.contains(currMax)) {
-                        weights.add(currMax);
-                    }
-                    smallestWeight = weights.peek();
-                    if (weights.size() > k) {
-                        weights.poll();
-                    }
+    String getTerm(int id) {
+        return frozen != null ? frozen.getTerm(id) : dictionary.getTerm(id);
+    }
+
+    /**
+     * Returns whether the dictionary was built with TOKEN_STARTS.
+     */
+    boolean indexesTokens() {
+        return frozen != null ? frozen.indexesTokens() : dictionary.indexesTokens();
+    }
+
+    /**
+     * Returns the key char that c is stored under.
+     */
+    char keyOf(char c) {
+        return frozen != null ? frozen.keyOf(c) : dictionary.keyOf(c);
+    }
+
+    /**
+     * Returns the key that s is stored under.
+     */
+    String keyOf(String s) {
+        boolean fold = frozen != null ? frozen.foldsKeys() : dictionary.foldsKeys();
+        return fold ? KeyFolding.fold(s) : s;
+    }
+
+    /**
+     * Offers the terms ending at n to the best words so far.
+     */
+    private void offerTerms(Trie.Node n, int k, SearchContext context) {
+        boolean distinct = dictionary.indexesTokens();
+        if (n.getTermId() >= 0) {
+            context.offerBest(n.getWeight(), n.getTermId(), k, distinct);
+            for (int i = 0; i < n.numPostings(); i++) {
+                double weight = dictionary.getTermWeight(n.postingAt(i));
+                if (context.numBest() == k && weight <= context.minBest()) {
+                    break;
                 }
+                context.offerBest(weight, n.postingAt(i), k, distinct);
             }
         }
+        for (int i = 0; i < n.numTokens(); i++) {
+            double weight = dictionary.getTermWeight(n.tokenAt(i));
+            if (context.numBest() == k && weight <= context.minBest()) {
+                break;
+            }
+            context.offerBest(weight, n.tokenAt(i), k, distinct);
+        }
+    }
 
-        LinkedList<String> iterable = new LinkedList<>();
-        while (!bestSoFar.isEmpty()) {
-            iterable.addFirst(getDictionary().getWord(bestSoFar.poll()));
+    /**
+     * Best-first search for the k heaviest words below prefix. Leaves their
+     * term ids in context.getResults() and returns how many there are.
+     */
+    private int search(String prefix, int k, SearchContext context) {
+        QueryStats stats = this.stats;
+        long start = 0;
+        if (stats != null) {
+            context.reset();
+            start = System.nanoTime();
+        }
+        int count = frozen != null ? frozen.topMatches(prefix, k, context)
+                : search(dictionary.getLast(prefix), k, context);
+        if (stats != null) {
+            stats.record(context, System.nanoTime() - start);
         }
-        return iterable;
+        return count;
+    }
+
+    /**
+     * Like search(prefix, k, context), starting from the node reached by
+     * the prefix, or finding nothing if head is null.
+     */
+    int search(Trie.Node head, int k, SearchContext context) {
+        if (head == null || k == 0) {
+            return 0;
+        }
+
+        int[] cached = head.getTopMatches();
+        if (cached != null && (k <= cached.length
+                || cached.length < dictionary.getTopMatchesK())) {
+            int count = Math.min(k, cached.length);
+            System.arraycopy(cached, 0, context.resultBuffer(count), 0, count);
+            double[] weights = context.getResultWeights();
+            for (int i = 0; i < count; i++) {
+                weights[i] = dictionary.getTermWeight(cached[i]);
+            }
+            return count;
+        }
+
+        context.reset();
+        context.pushFringe(head);
+        while (!context.fringeIsEmpty()) {
+            // nothing left on the fringe can beat the k-th best word
+            if (context.numBest() == k && context.peekFringe() <= context.minBest()) {
+                break;
+            }
+            Trie.Node n = context.node(context.popFringe());
+            offerTerms(n, k, context);
+            for (int i = 0; i < n.numLinks(); i++) {
+                Trie.Node child = n.linkAt(i);
+                if (context.numBest() < k || child.getMaxWeight() > context.minBest()) {
+                    context.pushFringe(child);
+                } else {
+                    context.addPruned(1);
+                }
+            }
+        }
+        return context.drainBest();
     }
 
     /**
@@ -183,22 +781,16 @@ public class Autocomplete {
      * queries from standard input and prints out the top k matching terms.
      *
      * @param args takes the name of an input file and an integer k as
-     *             command-line arguments
+     *             command-line arguments. The input file may be a snapshot
+     *             written by save(); an optional third argument names a
+     *             snapshot file to write after loading.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // initialize autocomplete data structure
-        In in = new In(args[0]);
-        int N = in.readInt();
-        String[] terms = new String[N];
-        double[] weights = new double[N];
-        for (int i = 0; i < N; i++) {
-            weights[i] = in.readDouble();   // read the next weight
-            in.readChar();                  // scan past the tab
-            terms[i] = in.readLine();       // read the next term
+        Autocomplete autocomplete = load(Paths.get(args[0]), false);
+        if (args.length > 2) {
+            autocomplete.save(Paths.get(args[2]));
         }
-
-
-        Autocomplete autocomplete = new Autocomplete(terms, weights);
         // process queries from standard input
         int k = Integer.parseInt(args[1]);
         while (StdIn.hasNextLine()) {
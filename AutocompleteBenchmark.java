@@ -0,0 +1,79 @@
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for building an Autocomplete and for its single-answer
+ * queries. See TopMatchesBenchmark, FuzzyTopMatchesBenchmark,
+ * InfixTopMatchesBenchmark and TrieBenchmark for the rest. main runs
+ * all of them with the GC profiler, which reports the allocation rate of
+ * each benchmark next to its time.
+ * Usage: java AutocompleteBenchmark [benchmark regex]
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AutocompleteBenchmark {
+
+    @Param({"baby.txt", "wiktionary.txt", "cities.txt"})
+    public String dictionary;
+
+    @Param({"short", "typed", "full"})
+    public String prefixLengths;
+
+    private BenchmarkDictionary data;
+    private Autocomplete autocomplete;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new BenchmarkDictionary(dictionary, prefixLengths);
+        autocomplete = new Autocomplete(data.getTerms(), data.getWeights());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Autocomplete build() {
+        return new Autocomplete(data.getTerms(), data.getWeights());
+    }
+
+    @Benchmark
+    public String topMatch() {
+        return autocomplete.topMatch(data.next());
+    }
+
+    @Benchmark
+    public double weightOf() {
+        return autocomplete.weightOf(data.next());
+    }
+
+    @Benchmark
+    public void topMatchAndWeightOf(Blackhole bh) {
+        String match = autocomplete.topMatch(data.next());
+        bh.consume(match);
+        if (match != null) {
+            bh.consume(autocomplete.weightOf(match));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "(Autocomplete|TopMatches|Trie)Benchmark";
+        new Runner(new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
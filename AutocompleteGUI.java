@@ -2,7 +2,7 @@
  *  @author Matthew Drabick
  *  Compilation:  javac AutocompleteGUI.java
  *  Execution:    java  AutocompleteGUI input.txt k
- *  Dependencies: In.java Autocomplete.java
+ *  Dependencies: Autocomplete.java AutocompleteSession.java DictionaryLoader.java
  *  Data files:   
  *    
  *    
@@ -37,7 +37,7 @@ import java.awt.event.*;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.LinkedList;
+import java.nio.file.Paths;
 import javax.swing.*;
 
 public class AutocompleteGUI extends JFrame {
@@ -99,6 +99,7 @@ public class AutocompleteGUI extends JFrame {
     private class AutocompletePanel extends JPanel {
         private final JTextField searchText;
         private Autocomplete auto;
+        private AutocompleteSession session;
         private String[] results = new String[k]; 
         private JList suggestions;
        
@@ -110,20 +111,13 @@ public class AutocompleteGUI extends JFrame {
         public AutocompletePanel(String filename) {
             super();
 
-            // read in the data
-            In in = new In(filename);
-            int N = Integer.parseInt(in.readLine());
-            String[] terms = new String[N];
-            double[] weights = new double[N];
-            for (int i = 0; i < N; i++) {
-                String line = in.readLine();
-                int tab = line.indexOf('\t');
-                weights[i] = Double.parseDouble(line.substring(0, tab).trim());
-                terms[i] = line.substring(tab + 1);
+            // read in the data and create the autocomplete object
+            try {
+                auto = Autocomplete.load(Paths.get(filename), false);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not load " + filename, e);
             }
-
-            // create the autocomplete object
-            auto = new Autocomplete(terms, weights);
+            session = new AutocompleteSession(auto, k);
 
             GroupLayout layout = new GroupLayout(this);
             this.setLayout(layout);
@@ -276,20 +270,16 @@ public class AutocompleteGUI extends JFrame {
             }
             else {
                 int textLen = text.length();
-                LinkedList<String> resultQ = new LinkedList<>();
-                LinkedList<Double> ds = new LinkedList<Double>();
-                for (String term : auto.topMatches(text, k)) {
-                    resultQ.offer(term);
-                    ds.offer(auto.weightOf(term));
-                }
-                if (!resultQ.isEmpty()) {
-                    results = new String[resultQ.size()];
+                // the session only steps from the previous text's node
+                session.setText(text);
+                if (session.numMatches() > 0) {
+                    results = new String[session.numMatches()];
                     for (int i = 0; i < results.length; i++) {
-                        results[i] = resultQ.poll();
+                        results[i] = session.getMatch(i);
                         /*Modified to include the weights of each term and a delimiter "|" to ensure that 
                          * the search does not include the weight.
                          */
-                        results[i] = "<html><span style=\"color:#C0C0C0;\">" + ds.poll() + "</span>" + "|"
+                        results[i] = "<html><span style=\"color:#C0C0C0;\">" + session.getMatchWeight(i) + "</span>" + "|"
                             + results[i].substring(0, textLen) + "<b>" + results[i].substring(textLen) + "</b></html>";
                     }
                     suggestions.setListData(results);
@@ -0,0 +1,159 @@
+import java.util.*;
+
+/**
+ * Autocompletes text as it is typed one character at a time. The session
+ * keeps the path of trie nodes for the current text, so typing a
+ * character is a single step down to a child and backspace pops back to
+ * the parent, and it remembers the matches found for every prefix on the
+ * path. The cost of a keystroke therefore does not grow with the length
+ * of the text. The dictionary must not be modified while a session is in
+ * use. A session is not thread-safe.
+ *
+ * @author
+ */
+public class AutocompleteSession {
+
+    private final Autocomplete autocomplete;
+    private final Trie dictionary;
+    private final FrozenTrie frozen;
+    private final int k;
+    private final SearchContext context = new SearchContext();
+
+    private final StringBuilder text = new StringBuilder();
+    // path[i] is the node reached by the first i characters of text, for i
+    // up to depth; only one of the two paths is used
+    private Trie.Node[] path = new Trie.Node[16];
+    private int[] frozenPath = new int[16];
+    private int depth;
+
+    // matches for the first i characters of text, or null if not computed
+    private int[][] matches = new int[16][];
+    private double[][] matchWeights = new double[16][];
+
+    /**
+     * Starts a session with empty text.
+     *
+     * @param autocomplete Dictionary to complete from.
+     * @param k            Maximum number of matches per prefix.
+     */
+    public AutocompleteSession(Autocomplete autocomplete, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.autocomplete = autocomplete;
+        this.dictionary = autocomplete.getDictionary();
+        this.frozen = autocomplete.getFrozen();
+        this.k = k;
+        if (frozen != null) {
+            frozenPath[0] = frozen.getRoot();
+        } else {
+            path[0] = dictionary.getRoot();
+        }
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Appends c to the text.
+     */
+    public void type(char c) {
+        int length = text.length();
+        if (length + 1 == matches.length) {
+            path = Arrays.copyOf(path, 2 * matches.length);
+            frozenPath = Arrays.copyOf(frozenPath, 2 * matches.length);
+            matches = Arrays.copyOf(matches, 2 * matches.length);
+            matchWeights = Arrays.copyOf(matchWeights, 2 * matchWeights.length);
+        }
+        text.append(c);
+        matches[length + 1] = null;
+        if (depth < length) {
+            return;
+        }
+        char key = autocomplete.keyOf(c);
+        if (frozen != null) {
+            frozenPath[length + 1] = frozen.getLink(frozenPath[length], length, key);
+            if (frozenPath[length + 1] >= 0) {
+                depth++;
+            }
+        } else {
+            path[length + 1] = path[length].getLink(key);
+            if (path[length + 1] != null) {
+                depth++;
+            }
+        }
+    }
+
+    /**
+     * Removes the last character of the text, if there is one.
+     */
+    public void backspace() {
+        int length = text.length();
+        if (length == 0) {
+            return;
+        }
+        text.setLength(length - 1);
+        if (depth == length) {
+            depth--;
+        }
+    }
+
+    /**
+     * Changes the text to s by backspacing to the longest common prefix of
+     * the current text and s, then typing the rest of s.
+     */
+    public void setText(String s) {
+        int common = 0;
+        int max = Math.min(text.length(), s.length());
+        while (common < max && text.charAt(common) == s.charAt(common)) {
+            common++;
+        }
+        while (text.length() > common) {
+            backspace();
+        }
+        for (int i = common; i < s.length(); i++) {
+            type(s.charAt(i));
+        }
+    }
+
+    /**
+     * Returns the number of matches for the current text.
+     */
+    public int numMatches() {
+        return matches().length;
+    }
+
+    /**
+     * Returns the i-th heaviest match for the current text.
+     */
+    public String getMatch(int i) {
+        return autocomplete.getTerm(matches()[i]);
+    }
+
+    /**
+     * Returns the weight of the i-th heaviest match for the current text.
+     */
+    public double getMatchWeight(int i) {
+        matches();
+        return matchWeights[text.length()][i];
+    }
+
+    /**
+     * Returns the term ids of the matches for the current text, searching
+     * from its node the first time they are asked for.
+     */
+    private int[] matches() {
+        int length = text.length();
+        if (matches[length] == null) {
+            int count = 0;
+            if (depth == length) {
+                count = frozen != null ? frozen.topMatches(frozenPath[length], k, context)
+                        : autocomplete.search(path[length], k, context);
+            }
+            matches[length] = Arrays.copyOf(context.getResults(), count);
+            matchWeights[length] = Arrays.copyOf(context.getResultWeights(), count);
+        }
+        return matches[length];
+    }
+}
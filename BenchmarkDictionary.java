@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Dictionary and query workload shared by the JMH benchmarks. Files are
+ * read from the directory named by the system property "dictionaries",
+ * or the working directory if it is not set.
+ *
+ * Queries are drawn from the dictionary's own terms with probability
+ * proportional to their weight, so popular terms are asked for most, and
+ * cut to a length given by one of these distributions:
+ * <ul>
+ * <li>short: 1 to 3 characters, mostly 1 or 2, like the first keystrokes.</li>
+ * <li>typed: any length up to the whole term, like every keystroke of
+ *     typing it out.</li>
+ * <li>full: the whole term.</li>
+ * </ul>
+ *
+ * @author
+ */
+public class BenchmarkDictionary {
+
+    // number of queries generated; a power of two so next() can mask
+    private static final int QUERIES = 1 << 14;
+
+    private final String[] terms;
+    private final double[] weights;
+    private final String[] queries;
+    private int next;
+
+    /**
+     * Loads a dictionary and generates its queries with a fixed seed.
+     *
+     * @param file          Dictionary file name.
+     * @param prefixLengths One of "short", "typed" or "full".
+     */
+    public BenchmarkDictionary(String file, String prefixLengths) throws IOException {
+        DictionaryLoader loader = DictionaryLoader.read(
+                Paths.get(System.getProperty("dictionaries", "."), file), false);
+        terms = loader.getTerms();
+        weights = loader.getWeights();
+
+        double[] cumulative = new double[terms.length];
+        double total = 0;
+        for (int i = 0; i < terms.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        Random random = new Random(17);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            String term = terms[Math.min(index < 0 ? -(index + 1) : index, terms.length - 1)];
+            queries[i] = term.substring(0, prefixLength(term, prefixLengths, random));
+        }
+    }
+
+    private static int prefixLength(String term, String prefixLengths, Random random) {
+        switch (prefixLengths) {
+            case "short":
+                int[] lengths = {1, 1, 1, 2, 2, 2, 2, 3};
+                return Math.min(term.length(), lengths[random.nextInt(lengths.length)]);
+            case "typed":
+                return 1 + random.nextInt(term.length());
+            case "full":
+                return term.length();
+            default:
+                throw new IllegalArgumentException("Unknown prefix lengths " + prefixLengths);
+        }
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Returns every character used by the terms, in ascending order.
+     */
+    public String getAlphabet() {
+        TreeSet<Character> chars = new TreeSet<>();
+        for (String term : terms) {
+            for (int i = 0; i < term.length(); i++) {
+                chars.add(term.charAt(i));
+            }
+        }
+        StringBuilder alphabet = new StringBuilder();
+        for (char c : chars) {
+            alphabet.append(c);
+        }
+        return alphabet.toString();
+    }
+
+    /**
+     * Returns the next query, cycling through the generated ones.
+     */
+    public String next() {
+        String query = queries[next];
+        next = (next + 1) & (QUERIES - 1);
+        return query;
+    }
+}
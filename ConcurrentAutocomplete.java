@@ -0,0 +1,60 @@
+/**
+ * Autocomplete that may be queried from many threads while new terms are
+ * added. Every query reads the current version of the dictionary without
+ * locking; a version is never modified once it has been published.
+ * Writers build the next version by copying only the trie nodes on the
+ * paths of the new terms and publish it with a single volatile write, so
+ * a query sees either all of a batch or none of it.
+ *
+ * @author
+ */
+public class ConcurrentAutocomplete {
+
+    private volatile Autocomplete current;
+
+    /**
+     * Initializes the first version from parallel arrays.
+     *
+     * @param terms   Array of terms.
+     * @param weights Array of weights.
+     */
+    public ConcurrentAutocomplete(String[] terms, double[] weights) {
+        current = new Autocomplete(terms, weights);
+    }
+
+    /**
+     * Returns the version queries currently run against. It must not be
+     * modified, frozen or cached by the caller.
+     */
+    public Autocomplete current() {
+        return current;
+    }
+
+    /**
+     * Adds a batch of terms and publishes the result as the new version.
+     * Writers are serialized against each other but never block readers.
+     * If the batch is invalid nothing is published.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length, a
+     *         term is empty or already present, or a weight is negative.
+     */
+    public synchronized void insertAll(String[] terms, double[] weights) {
+        current = new Autocomplete(current.getDictionary().withInserts(terms, weights));
+    }
+
+    public double weightOf(String term) {
+        return current.weightOf(term);
+    }
+
+    public String topMatch(String prefix) {
+        return current.topMatch(prefix);
+    }
+
+    public Iterable<String> topMatches(String prefix, int k) {
+        return current.topMatches(prefix, k);
+    }
+
+    public int topMatches(String prefix, int k, String[] out) {
+        return current.topMatches(prefix, k, out);
+    }
+}
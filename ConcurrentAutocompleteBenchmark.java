@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures query throughput of ConcurrentAutocomplete for growing numbers
+ * of reader threads while one writer keeps publishing new versions.
+ * Usage: java ConcurrentAutocompleteBenchmark dictionary [seconds]
+ *
+ * @author
+ */
+public class ConcurrentAutocompleteBenchmark {
+
+    private static final int K = 10;
+    private static final int BATCH = 100;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println("You must specify a dictionary file.");
+            System.exit(0);
+        }
+        DictionaryLoader loader = DictionaryLoader.read(Paths.get(args[0]), false);
+        String[] terms = loader.getTerms();
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+
+        // queries are the first few characters of the dictionary's terms
+        String[] prefixes = new String[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            prefixes[i] = terms[i].substring(0, Math.min(terms[i].length(), 1 + i % 3));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(cores + " cores");
+        // one untimed round so every count runs compiled code
+        run(new ConcurrentAutocomplete(terms, loader.getWeights()), prefixes, 1, seconds);
+        double single = 0;
+        for (int threads = 1; threads <= Math.max(8, cores); threads *= 2) {
+            ConcurrentAutocomplete ac = new ConcurrentAutocomplete(terms, loader.getWeights());
+            double rate = run(ac, prefixes, threads, seconds);
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.printf("%2d readers: %12.0f queries/s  (%.2fx)%n",
+                    threads, rate, rate / single);
+        }
+    }
+
+    private static double run(ConcurrentAutocomplete ac, String[] prefixes, int threads,
+                              double seconds) throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder queries = new LongAdder();
+
+        Thread[] readers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            readers[t] = new Thread(() -> {
+                String[] out = new String[K];
+                int i = seed * 7919;
+                long count = 0;
+                while (!done.get()) {
+                    ac.topMatches(prefixes[Math.floorMod(i, prefixes.length)], K, out);
+                    i += 31;
+                    count++;
+                }
+                queries.add(count);
+            });
+        }
+
+        Thread writer = new Thread(() -> {
+            int next = 0;
+            while (!done.get()) {
+                String[] batch = new String[BATCH];
+                double[] weights = new double[BATCH];
+                for (int j = 0; j < BATCH; j++) {
+                    batch[j] = "~benchmark " + next++;
+                    weights[j] = next;
+                }
+                ac.insertAll(batch, weights);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.start();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        writer.join();
+        return queries.sum() / seconds;
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads dictionary files of the form
+ * <pre>
+ * N
+ *     weight&lt;TAB&gt;term
+ *     ...
+ * </pre>
+ * straight from a memory-mapped copy of the file. Weights are parsed from
+ * the bytes without building intermediate Strings, and terms are decoded
+ * as UTF-8. Large files can be split into chunks parsed concurrently.
+ *
+ * @author
+ */
+public class DictionaryLoader {
+
+    // below this many bytes a file is always parsed by one thread
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private final String[] terms;
+    private final double[] weights;
+
+    private DictionaryLoader(int n) {
+        terms = new String[n];
+        weights = new double[n];
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Reads the first N terms and weights of a dictionary file.
+     *
+     * @param file     Dictionary file.
+     * @param parallel Whether to parse chunks of the file on all cores.
+     * @throws IOException if the file cannot be read, is malformed, or
+     *                     holds fewer than N lines.
+     */
+    public static DictionaryLoader read(Path file, boolean parallel) throws IOException {
+        return read(file, MIN_CHUNK,
+                parallel ? Runtime.getRuntime().availableProcessors() : 1);
+    }
+
+    /**
+     * Reads a dictionary file like read(file, parallel), in at most
+     * maxChunks chunks of at least minChunk bytes each.
+     */
+    static DictionaryLoader read(Path file, int minChunk, int maxChunks) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map.");
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int end = in.limit();
+
+        // header: N on a line of its own
+        int pos = skipBlanks(in, 0, end);
+        long n = 0;
+        while (pos < end && isDigit(in.get(pos))) {
+            n = 10 * n + (in.get(pos++) - '0');
+            if (n > Integer.MAX_VALUE) {
+                throw new IOException(file + ": bad term count.");
+            }
+        }
+        pos = skipBlanks(in, pos, end);
+        if (pos < end && in.get(pos) == '\r') {
+            pos++;
+        }
+        if (pos == end || in.get(pos) != '\n') {
+            throw new IOException(file + ": missing term count.");
+        }
+        pos++;
+
+        DictionaryLoader result = new DictionaryLoader((int) n);
+        int chunks = Math.max(1, Math.min(maxChunks, (end - pos) / minChunk));
+
+        // chunk boundaries fall just after a newline
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = pos;
+        bounds[chunks] = end;
+        for (int c = 1; c < chunks; c++) {
+            int b = Math.max(bounds[c - 1], pos + (int) ((long) (end - pos) * c / chunks));
+            while (b < end && in.get(b - 1) != '\n') {
+                b++;
+            }
+            bounds[c] = b;
+        }
+
+        if (chunks == 1) {
+            int found = result.parse(in, bounds[0], bounds[1], 0, file);
+            if (found < n) {
+                throw new IOException(file + ": expected " + n + " terms, found " + found + ".");
+            }
+            return result;
+        }
+
+        // first pass counts the lines of each chunk to find its first index
+        int[] firstLine = new int[chunks + 1];
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                firstLine[chunk + 1] = countLines(in, bounds[chunk], bounds[chunk + 1]);
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (int c = 0; c < chunks; c++) {
+            firstLine[c + 1] += firstLine[c];
+        }
+
+        tasks.clear();
+        IOException[] failure = new IOException[1];
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    result.parse(in, bounds[chunk], bounds[chunk + 1], firstLine[chunk], file);
+                } catch (IOException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        if (firstLine[chunks] < n) {
+            throw new IOException(file + ": expected " + n + " terms, found "
+                    + firstLine[chunks] + ".");
+        }
+        return result;
+    }
+
+    private static int countLines(ByteBuffer in, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (in.get(i) == '\n') {
+                lines++;
+            }
+        }
+        if (to > from && in.get(to - 1) != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Parses the lines in [from, to) as terms first, first + 1, ... and
+     * stops once the term count from the header is reached.
+     *
+     * @return Index after the last term parsed.
+     */
+    private int parse(ByteBuffer in, int from, int to, int first, Path file)
+            throws IOException {
+        byte[] termBytes = new byte[256];
+        int pos = from;
+        int i = first;
+        while (pos < to && i < terms.length) {
+            pos = skipBlanks(in, pos, to);
+            int start = pos;
+            weights[i] = parseWeight(in, pos, to);
+            while (pos < to && in.get(pos) != '\t' && in.get(pos) != '\n') {
+                pos++;
+            }
+            if (pos == start || pos == to || in.get(pos) != '\t' || Double.isNaN(weights[i])) {
+                throw new IOException(file + ": malformed line " + (i + 2) + ".");
+            }
+            pos++;
+
+            int termStart = pos;
+            while (pos < to && in.get(pos) != '\n') {
+                pos++;
+            }
+            int termEnd = pos;
+            if (termEnd > termStart && in.get(termEnd - 1) == '\r') {
+                termEnd--;
+            }
+            int length = termEnd - termStart;
+            if (length > termBytes.length) {
+                termBytes = new byte[Math.max(length, 2 * termBytes.length)];
+            }
+            for (int j = 0; j < length; j++) {
+                termBytes[j] = in.get(termStart + j);
+            }
+            terms[i++] = new String(termBytes, 0, length, StandardCharsets.UTF_8);
+            pos++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses the weight starting at pos. Plain decimals such as 1234.50 are
+     * converted directly from the digits; anything else, like exponents or
+     * very long numbers, falls back to Double.parseDouble. Returns NaN if
+     * there is no number at pos.
+     */
+    private static double parseWeight(ByteBuffer in, int pos, int to) {
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        int i = pos;
+        for (; i < to; i++) {
+            byte b = in.get(i);
+            if (isDigit(b)) {
+                mantissa = 10 * mantissa + (b - '0');
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        boolean plain = i < to && (in.get(i) == '\t' || in.get(i) == ' ');
+        // doubles represent these mantissas and powers of ten exactly, so the
+        // single division below rounds exactly like Double.parseDouble
+        if (plain && digits > 0 && digits <= 15) {
+            return fraction <= 0 ? mantissa : mantissa / POWERS_OF_TEN[fraction];
+        }
+
+        int end = pos;
+        while (end < to && in.get(end) != '\t' && in.get(end) != '\n') {
+            end++;
+        }
+        byte[] text = new byte[end - pos];
+        for (int j = 0; j < text.length; j++) {
+            text[j] = in.get(pos + j);
+        }
+        try {
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int skipBlanks(ByteBuffer in, int pos, int to) {
+        while (pos < to && (in.get(pos) == ' ' || in.get(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Rows of the edit distance table used by the fuzzy searches of
+ * Autocomplete and FrozenTrie. A row holds the edit distances from the
+ * path to a node to each prefix of the query, so a search extends it one
+ * char at a time as it walks down the trie.
+ *
+ * @author
+ */
+final class EditRows {
+
+    private EditRows() {
+    }
+
+    /**
+     * Returns the edit distances from the empty string to each prefix of
+     * the query.
+     */
+    static int[] first(String query) {
+        int[] row = new int[query.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        return row;
+    }
+
+    /**
+     * Extends row, the edit distances from some string s to each prefix of
+     * the query, to those from s + c. Returns null if all of them exceed
+     * maxEdits, since no longer string can come back within reach.
+     */
+    static int[] next(int[] row, String query, char c, int maxEdits) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        int min = next[0];
+        for (int j = 1; j < row.length; j++) {
+            int substitute = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+            min = Math.min(min, next[j]);
+        }
+        return min <= maxEdits ? next : null;
+    }
+
+    /**
+     * Returns whether every string that starts with the path of row is
+     * within maxEdits of the query.
+     */
+    static boolean matchesAll(int[] row, int maxEdits) {
+        return row[row.length - 1] <= maxEdits;
+    }
+}
@@ -0,0 +1,881 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only, index-based copy of a weighted Trie.
+ * Chains of nodes that have one child and hold no terms are collapsed
+ * into a single edge, whose label is read from the term pool, so only
+ * nodes that branch or hold terms are stored.
+ * Nodes are numbered in breadth-first order, so the children of a node
+ * are stored next to each other and sorted by their label. Every
+ * per-node field lives in a primitive buffer instead of a Trie.Node.
+ * The buffers either wrap arrays built from a Trie or are views of a
+ * memory-mapped snapshot file written by write(). A trie with folded keys
+ * stays folded, and the few nodes shared by several terms keep their
+ * further terms and token entries in separate posting sections. Top
+ * matches cached with Trie.precomputeTopMatches are kept as well.
+ *
+ * @author
+ */
+public class FrozenTrie {
+
+    private static final int ROOT = 0;
+
+    // snapshot file header: magic, version, node count, term count,
+    // term pool length, flags, payload length, CRC32 of the whole file
+    // except itself, number of nodes with postings, number of postings,
+    // number of nodes with cached top matches, number of cached ids, K of
+    // the cache, and padding that keeps the first section 8-byte aligned
+    private static final int MAGIC = 0x52544341;
+    private static final int VERSION = 6;
+    private static final int HEADER = 64;
+    private static final int FOLD_KEYS = 1;
+    private static final int INDEX_TOKENS = 2;
+
+    private final int size;
+    private final int numTerms;
+    private final boolean foldKeys;
+    private final boolean indexTokens;
+    private final int topMatchesK;
+
+    // children of node i are the nodes firstChild[i] .. firstChild[i + 1] - 1
+    private final IntBuffer firstChild;
+    // length of the path to each node
+    private final IntBuffer depths;
+    // the edge into node i is labeled with the keys of termChars[labelEnds[i]
+    // - depths[i] + d] for every depth d from that of its parent up to its own
+    private final IntBuffer labelEnds;
+    private final DoubleBuffer weight;
+    private final DoubleBuffer maxWeight;
+    // for node i, byWeight[firstChild[i] .. firstChild[i + 1] - 1] are its
+    // children in descending order of maxWeight
+    private final IntBuffer byWeight;
+    // id of the term ending at each node, or -1 if the node is not a word
+    private final IntBuffer termIds;
+    // term i is termChars[termStarts[i] .. termStarts[i + 1] - 1]
+    private final IntBuffer termStarts;
+    private final CharBuffer termChars;
+    // nodes holding further terms besides termIds, in ascending order; the
+    // postings of postingNodes[i] are postingIds[postingStarts[i] ..
+    // postingSplits[i] - 1] and its tokens postingIds[postingSplits[i] ..
+    // postingStarts[i + 1] - 1], each heaviest first, weighing
+    // postingWeights
+    private final IntBuffer postingNodes;
+    private final IntBuffer postingStarts;
+    private final IntBuffer postingSplits;
+    private final IntBuffer postingIds;
+    private final DoubleBuffer postingWeights;
+    // nodes with cached top matches, in ascending order; the cache of
+    // cacheNodes[i] is cacheIds[cacheStarts[i] .. cacheStarts[i + 1] - 1],
+    // heaviest first, weighing cacheWeights
+    private final IntBuffer cacheNodes;
+    private final IntBuffer cacheStarts;
+    private final IntBuffer cacheIds;
+    private final DoubleBuffer cacheWeights;
+    // terms already turned into Strings, so repeated results allocate nothing
+    private final String[] termCache;
+
+    /**
+     * Compiles the given trie. The trie itself is left untouched.
+     *
+     * @param trie Trie built with insert(String, double).
+     */
+    public FrozenTrie(Trie trie) {
+        numTerms = trie.numTerms();
+        foldKeys = trie.foldsKeys();
+        indexTokens = trie.indexesTokens();
+        topMatchesK = trie.getTopMatchesK();
+        int[] termStartArr = new int[numTerms + 1];
+        for (int i = 0; i < numTerms; i++) {
+            String t = trie.getTerm(i);
+            termStartArr[i + 1] = termStartArr[i] + (t == null ? 0 : t.length());
+        }
+
+        // kept nodes in breadth-first order, each with the cache of the
+        // topmost node collapsed into its edge, which holds the same words
+        ArrayList<Trie.Node> order = new ArrayList<>();
+        ArrayList<int[]> caches = new ArrayList<>();
+        order.add(trie.getRoot());
+        caches.add(trie.getRoot().getTopMatches());
+        int[] firstChildArr = new int[16];
+        int[] depthArr = new int[16];
+        int[] labelEndArr = new int[16];
+        for (int i = 0; i < order.size(); i++) {
+            Trie.Node n = order.get(i);
+            firstChildArr[i] = order.size();
+            for (int j = 0; j < n.numLinks(); j++) {
+                Trie.Node child = n.linkAt(j);
+                int depth = depthArr[i] + 1;
+                int[] cached = child.getTopMatches();
+                while (!isKept(child)) {
+                    child = child.linkAt(0);
+                    depth++;
+                    if (cached == null) {
+                        cached = child.getTopMatches();
+                    }
+                }
+                int c = order.size();
+                order.add(child);
+                caches.add(cached);
+                if (c + 1 >= firstChildArr.length) {
+                    firstChildArr = Arrays.copyOf(firstChildArr, 2 * (c + 1));
+                    depthArr = Arrays.copyOf(depthArr, 2 * (c + 1));
+                    labelEndArr = Arrays.copyOf(labelEndArr, 2 * (c + 1));
+                }
+                depthArr[c] = depth;
+                labelEndArr[c] = labelEnd(child, depth, termStartArr);
+            }
+        }
+
+        size = order.size();
+        firstChildArr[size] = size;
+        firstChildArr = Arrays.copyOf(firstChildArr, size + 1);
+        depthArr = Arrays.copyOf(depthArr, size);
+        labelEndArr = Arrays.copyOf(labelEndArr, size);
+        double[] weightArr = new double[size];
+        double[] maxWeightArr = new double[size];
+        int[] byWeightArr = new int[size];
+        int[] termIdArr = new int[size];
+        int numPostingNodes = 0;
+        int numPostings = 0;
+        int numCacheNodes = 0;
+        int numCacheIds = 0;
+
+        for (int i = 0; i < size; i++) {
+            Trie.Node n = order.get(i);
+            weightArr[i] = n.getWeight();
+            maxWeightArr[i] = n.getMaxWeight();
+            termIdArr[i] = n.getTermId();
+            if (n.numPostings() + n.numTokens() > 0) {
+                numPostingNodes++;
+                numPostings += n.numPostings() + n.numTokens();
+            }
+            if (caches.get(i) != null) {
+                numCacheNodes++;
+                numCacheIds += caches.get(i).length;
+            }
+        }
+
+        int[] postingNodeArr = new int[numPostingNodes];
+        int[] postingStartArr = new int[numPostingNodes + 1];
+        int[] postingSplitArr = new int[numPostingNodes];
+        int[] postingIdArr = new int[numPostings];
+        double[] postingWeightArr = new double[numPostings];
+        for (int i = 0, j = 0; i < size; i++) {
+            Trie.Node n = order.get(i);
+            if (n.numPostings() + n.numTokens() == 0) {
+                continue;
+            }
+            postingNodeArr[j] = i;
+            int start = postingStartArr[j];
+            for (int p = 0; p < n.numPostings(); p++) {
+                postingIdArr[start + p] = n.postingAt(p);
+                postingWeightArr[start + p] = trie.getTermWeight(n.postingAt(p));
+            }
+            start += n.numPostings();
+            postingSplitArr[j] = start;
+            for (int p = 0; p < n.numTokens(); p++) {
+                postingIdArr[start + p] = n.tokenAt(p);
+                postingWeightArr[start + p] = trie.getTermWeight(n.tokenAt(p));
+            }
+            postingStartArr[++j] = start + n.numTokens();
+        }
+
+        int[] cacheNodeArr = new int[numCacheNodes];
+        int[] cacheStartArr = new int[numCacheNodes + 1];
+        int[] cacheIdArr = new int[numCacheIds];
+        double[] cacheWeightArr = new double[numCacheIds];
+        for (int i = 0, j = 0; i < size; i++) {
+            int[] cached = caches.get(i);
+            if (cached == null) {
+                continue;
+            }
+            cacheNodeArr[j] = i;
+            int start = cacheStartArr[j];
+            for (int c = 0; c < cached.length; c++) {
+                cacheIdArr[start + c] = cached[c];
+                cacheWeightArr[start + c] = trie.getTermWeight(cached[c]);
+            }
+            cacheStartArr[++j] = start + cached.length;
+        }
+
+        for (int i = 0; i < size; i++) {
+            sortByWeight(byWeightArr, maxWeightArr, firstChildArr[i], firstChildArr[i + 1]);
+        }
+
+        char[] termCharArr = new char[termStartArr[numTerms]];
+        termCache = new String[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            String t = trie.getTerm(i);
+            if (t != null) {
+                t.getChars(0, t.length(), termCharArr, termStartArr[i]);
+            }
+            termCache[i] = t;
+        }
+
+        firstChild = IntBuffer.wrap(firstChildArr);
+        depths = IntBuffer.wrap(depthArr);
+        labelEnds = IntBuffer.wrap(labelEndArr);
+        weight = DoubleBuffer.wrap(weightArr);
+        maxWeight = DoubleBuffer.wrap(maxWeightArr);
+        byWeight = IntBuffer.wrap(byWeightArr);
+        termIds = IntBuffer.wrap(termIdArr);
+        termStarts = IntBuffer.wrap(termStartArr);
+        termChars = CharBuffer.wrap(termCharArr);
+        postingNodes = IntBuffer.wrap(postingNodeArr);
+        postingStarts = IntBuffer.wrap(postingStartArr);
+        postingSplits = IntBuffer.wrap(postingSplitArr);
+        postingIds = IntBuffer.wrap(postingIdArr);
+        postingWeights = DoubleBuffer.wrap(postingWeightArr);
+        cacheNodes = IntBuffer.wrap(cacheNodeArr);
+        cacheStarts = IntBuffer.wrap(cacheStartArr);
+        cacheIds = IntBuffer.wrap(cacheIdArr);
+        cacheWeights = DoubleBuffer.wrap(cacheWeightArr);
+    }
+
+    /**
+     * Returns whether node needs a node of its own: chains of nodes with one
+     * child and no terms collapse into the edge of the node below them.
+     */
+    private static boolean isKept(Trie.Node node) {
+        return node.numLinks() != 1 || node.getTermId() >= 0
+                || node.numPostings() + node.numTokens() > 0;
+    }
+
+    /**
+     * Returns where the key of the path to node, of the given depth, ends
+     * in the term pool. Every path is the start of the key of a term below
+     * it, or of a token of one, and keys are as long as their terms, so
+     * edge labels are read from the pool instead of being stored again.
+     */
+    private static int labelEnd(Trie.Node node, int depth, int[] termStarts) {
+        for (int below = 0; ; below++) {
+            if (node.getTermId() >= 0) {
+                return termStarts[node.getTermId()] + depth;
+            }
+            if (node.numPostings() > 0) {
+                return termStarts[node.postingAt(0)] + depth;
+            }
+            if (node.numTokens() > 0) {
+                // the token ends with the term, below steps under node
+                return termStarts[node.tokenAt(0) + 1] - below;
+            }
+            node = node.linkAt(0);
+        }
+    }
+
+    /**
+     * Creates a FrozenTrie backed by the sections of a mapped snapshot.
+     */
+    private FrozenTrie(ByteBuffer file) {
+        size = file.getInt(8);
+        numTerms = file.getInt(12);
+        int poolLength = file.getInt(16);
+        foldKeys = (file.getInt(20) & FOLD_KEYS) != 0;
+        indexTokens = (file.getInt(20) & INDEX_TOKENS) != 0;
+        int numPostingNodes = file.getInt(40);
+        int numPostings = file.getInt(44);
+        int numCacheNodes = file.getInt(48);
+        int numCacheIds = file.getInt(52);
+        topMatchesK = file.getInt(56);
+
+        int offset = HEADER;
+        weight = section(file, offset, 8 * size).asDoubleBuffer();
+        offset += 8 * size;
+        maxWeight = section(file, offset, 8 * size).asDoubleBuffer();
+        offset += 8 * size;
+        postingWeights = section(file, offset, 8 * numPostings).asDoubleBuffer();
+        offset += 8 * numPostings;
+        cacheWeights = section(file, offset, 8 * numCacheIds).asDoubleBuffer();
+        offset += 8 * numCacheIds;
+        firstChild = section(file, offset, 4 * (size + 1)).asIntBuffer();
+        offset += 4 * (size + 1);
+        byWeight = section(file, offset, 4 * size).asIntBuffer();
+        offset += 4 * size;
+        termIds = section(file, offset, 4 * size).asIntBuffer();
+        offset += 4 * size;
+        depths = section(file, offset, 4 * size).asIntBuffer();
+        offset += 4 * size;
+        labelEnds = section(file, offset, 4 * size).asIntBuffer();
+        offset += 4 * size;
+        termStarts = section(file, offset, 4 * (numTerms + 1)).asIntBuffer();
+        offset += 4 * (numTerms + 1);
+        postingNodes = section(file, offset, 4 * numPostingNodes).asIntBuffer();
+        offset += 4 * numPostingNodes;
+        postingStarts = section(file, offset, 4 * (numPostingNodes + 1)).asIntBuffer();
+        offset += 4 * (numPostingNodes + 1);
+        postingSplits = section(file, offset, 4 * numPostingNodes).asIntBuffer();
+        offset += 4 * numPostingNodes;
+        postingIds = section(file, offset, 4 * numPostings).asIntBuffer();
+        offset += 4 * numPostings;
+        cacheNodes = section(file, offset, 4 * numCacheNodes).asIntBuffer();
+        offset += 4 * numCacheNodes;
+        cacheStarts = section(file, offset, 4 * (numCacheNodes + 1)).asIntBuffer();
+        offset += 4 * (numCacheNodes + 1);
+        cacheIds = section(file, offset, 4 * numCacheIds).asIntBuffer();
+        offset += 4 * numCacheIds;
+        termChars = section(file, offset, 2 * poolLength).asCharBuffer();
+        termCache = new String[numTerms];
+    }
+
+    private static ByteBuffer section(ByteBuffer file, int offset, int length) {
+        ByteBuffer b = file.duplicate();
+        b.position(offset).limit(offset + length);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Fills byWeight[from .. to - 1] with the nodes from .. to - 1 sorted by
+     * descending maxWeight. Fanouts are small, so insertion sort is enough.
+     */
+    private static void sortByWeight(int[] byWeight, double[] maxWeight, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int j = i;
+            while (j > from && maxWeight[byWeight[j - 1]] < maxWeight[i]) {
+                byWeight[j] = byWeight[j - 1];
+                j--;
+            }
+            byWeight[j] = i;
+        }
+    }
+
+    /**
+     * Writes this trie to a snapshot file that open() can map back in. The
+     * snapshot is written to a temporary file next to file and then moved
+     * over it, so a crash never leaves a partial snapshot behind, and a trie
+     * mapped from file itself can be written back to it.
+     *
+     * @param file File to create or overwrite.
+     */
+    public void write(Path file) throws IOException {
+        int poolLength = termChars.limit();
+        int numPostingNodes = postingNodes.limit();
+        int numPostings = postingIds.limit();
+        int numCacheNodes = cacheNodes.limit();
+        int numCacheIds = cacheIds.limit();
+        long length = HEADER + payloadLength(size, numTerms, poolLength, numPostingNodes,
+                numPostings, numCacheNodes, numCacheIds);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large for a snapshot.");
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            int offset = HEADER;
+            section(out, offset, 8 * size).asDoubleBuffer().put(weight.duplicate());
+            offset += 8 * size;
+            section(out, offset, 8 * size).asDoubleBuffer().put(maxWeight.duplicate());
+            offset += 8 * size;
+            section(out, offset, 8 * numPostings).asDoubleBuffer().put(postingWeights.duplicate());
+            offset += 8 * numPostings;
+            section(out, offset, 8 * numCacheIds).asDoubleBuffer().put(cacheWeights.duplicate());
+            offset += 8 * numCacheIds;
+            section(out, offset, 4 * (size + 1)).asIntBuffer().put(firstChild.duplicate());
+            offset += 4 * (size + 1);
+            section(out, offset, 4 * size).asIntBuffer().put(byWeight.duplicate());
+            offset += 4 * size;
+            section(out, offset, 4 * size).asIntBuffer().put(termIds.duplicate());
+            offset += 4 * size;
+            section(out, offset, 4 * size).asIntBuffer().put(depths.duplicate());
+            offset += 4 * size;
+            section(out, offset, 4 * size).asIntBuffer().put(labelEnds.duplicate());
+            offset += 4 * size;
+            section(out, offset, 4 * (numTerms + 1)).asIntBuffer().put(termStarts.duplicate());
+            offset += 4 * (numTerms + 1);
+            section(out, offset, 4 * numPostingNodes).asIntBuffer().put(postingNodes.duplicate());
+            offset += 4 * numPostingNodes;
+            section(out, offset, 4 * (numPostingNodes + 1)).asIntBuffer()
+                    .put(postingStarts.duplicate());
+            offset += 4 * (numPostingNodes + 1);
+            section(out, offset, 4 * numPostingNodes).asIntBuffer().put(postingSplits.duplicate());
+            offset += 4 * numPostingNodes;
+            section(out, offset, 4 * numPostings).asIntBuffer().put(postingIds.duplicate());
+            offset += 4 * numPostings;
+            section(out, offset, 4 * numCacheNodes).asIntBuffer().put(cacheNodes.duplicate());
+            offset += 4 * numCacheNodes;
+            section(out, offset, 4 * (numCacheNodes + 1)).asIntBuffer()
+                    .put(cacheStarts.duplicate());
+            offset += 4 * (numCacheNodes + 1);
+            section(out, offset, 4 * numCacheIds).asIntBuffer().put(cacheIds.duplicate());
+            offset += 4 * numCacheIds;
+            section(out, offset, 2 * poolLength).asCharBuffer().put(termChars.duplicate());
+
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, size);
+            out.putInt(12, numTerms);
+            out.putInt(16, poolLength);
+            out.putInt(20, (foldKeys ? FOLD_KEYS : 0) | (indexTokens ? INDEX_TOKENS : 0));
+            out.putLong(24, length - HEADER);
+            out.putInt(40, numPostingNodes);
+            out.putInt(44, numPostings);
+            out.putInt(48, numCacheNodes);
+            out.putInt(52, numCacheIds);
+            out.putInt(56, topMatchesK);
+            out.putLong(32, checksum(out));
+            out.force();
+            channel.close();
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Returns the total length of the sections for the given counts.
+     */
+    private static long payloadLength(long size, long numTerms, long poolLength,
+                                      long numPostingNodes, long numPostings,
+                                      long numCacheNodes, long numCacheIds) {
+        return 8 * (2 * size + numPostings + numCacheIds)
+                + 4 * (5 * size + numTerms + 2 + 3 * numPostingNodes + 1 + numPostings
+                + 2 * numCacheNodes + 1 + numCacheIds)
+                + 2 * poolLength;
+    }
+
+    /**
+     * Maps a snapshot written by write(). No per-node objects are created,
+     * so apart from the optional checksum pass this takes the same time
+     * for any dictionary size.
+     *
+     * @param file   Snapshot file.
+     * @param verify Whether to check the CRC32 of the whole file, header
+     *               included, which reads every page once.
+     * @throws IOException if the file is not a snapshot of this version,
+     *                     is truncated, has a header whose counts do not
+     *                     add up to its length, or fails the checksum.
+     */
+    public static FrozenTrie open(Path file, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER || length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a dictionary snapshot.");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (in.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a dictionary snapshot.");
+            }
+            if (in.getInt(4) != VERSION) {
+                throw new IOException(file + " has snapshot version " + in.getInt(4)
+                        + ", expected " + VERSION + ".");
+            }
+            if (in.getLong(24) != length - HEADER) {
+                throw new IOException(file + " is truncated.");
+            }
+            if (verify && in.getLong(32) != checksum(in)) {
+                throw new IOException(file + " failed its checksum.");
+            }
+            int[] counts = {in.getInt(8), in.getInt(12), in.getInt(16), in.getInt(40),
+                in.getInt(44), in.getInt(48), in.getInt(52), in.getInt(56)};
+            for (int count : counts) {
+                if (count < 0) {
+                    throw new IOException(file + " has a corrupt header.");
+                }
+            }
+            if (counts[0] == 0 || (in.getInt(20) & ~(FOLD_KEYS | INDEX_TOKENS)) != 0
+                    || payloadLength(counts[0], counts[1], counts[2], counts[3],
+                    counts[4], counts[5], counts[6]) != length - HEADER) {
+                throw new IOException(file + " has a corrupt header.");
+            }
+            return new FrozenTrie(in);
+        }
+    }
+
+    /**
+     * Returns whether the file starts like a snapshot written by write().
+     */
+    public static boolean isSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                continue;
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Returns the CRC32 of the whole file except the slot that holds it.
+     */
+    private static long checksum(ByteBuffer file) {
+        CRC32 crc = new CRC32();
+        ByteBuffer part = file.duplicate();
+        part.position(0).limit(32);
+        crc.update(part);
+        part = file.duplicate();
+        part.position(40);
+        crc.update(part);
+        return crc.getValue();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean foldsKeys() {
+        return foldKeys;
+    }
+
+    public boolean indexesTokens() {
+        return indexTokens;
+    }
+
+    /**
+     * Returns the K of the cached top matches, or 0 if none are cached.
+     */
+    public int getTopMatchesK() {
+        return topMatchesK;
+    }
+
+    /**
+     * Returns the label char that c is stored under.
+     */
+    public char keyOf(char c) {
+        return foldKeys ? KeyFolding.fold(c) : c;
+    }
+
+    /**
+     * Returns i such that postingNodes[i] is node, or -1 if node has no
+     * postings.
+     */
+    private int postingsOf(int node) {
+        return indexOf(postingNodes, node);
+    }
+
+    /**
+     * Returns i such that nodes[i] is node, or -1; nodes is ascending.
+     */
+    private static int indexOf(IntBuffer nodes, int node) {
+        int lo = 0;
+        int hi = nodes.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int other = nodes.get(mid);
+            if (other < node) {
+                lo = mid + 1;
+            } else if (other > node) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Offers the terms ending at node n to the best words so far.
+     */
+    private void offerTerms(int n, int k, SearchContext context) {
+        int termId = termIds.get(n);
+        if (termId >= 0) {
+            context.offerBest(weight.get(n), termId, k, indexTokens);
+        }
+        int p = postingNodes.limit() == 0 || termId < 0 && !indexTokens ? -1 : postingsOf(n);
+        if (p >= 0) {
+            offerPostings(postingStarts.get(p), postingSplits.get(p), k, context);
+            offerPostings(postingSplits.get(p), postingStarts.get(p + 1), k, context);
+        }
+    }
+
+    /**
+     * Offers postingIds[from .. to - 1], which are heaviest first.
+     */
+    private void offerPostings(int from, int to, int k, SearchContext context) {
+        for (int i = from; i < to; i++) {
+            double w = postingWeights.get(i);
+            if (context.numBest() == k && w <= context.minBest()) {
+                break;
+            }
+            context.offerBest(w, postingIds.get(i), k, indexTokens);
+        }
+    }
+
+    /**
+     * Returns the index of the node reached by term, or of the node below if
+     * term ends inside the edge into it, or -1 if there is none. Either way
+     * the node's subtree holds exactly the words that start with term.
+     */
+    public int getLast(String term) {
+        int node = ROOT;
+        for (int i = 0; i < term.length() && node >= 0; i++) {
+            node = getLink(node, i, keyOf(term.charAt(i)));
+        }
+        return node;
+    }
+
+    /**
+     * Returns the length of the path to node.
+     */
+    public int getDepth(int node) {
+        return depths.get(node);
+    }
+
+    /**
+     * Returns the key at depth d on the path to node, for a depth on the
+     * edge into node.
+     */
+    private char labelAt(int node, int d) {
+        return keyOf(termChars.get(labelEnds.get(node) - depths.get(node) + d));
+    }
+
+    /**
+     * Returns the index of the root node.
+     */
+    public int getRoot() {
+        return ROOT;
+    }
+
+    /**
+     * Follows key c from the position depth chars down the path to node,
+     * which getLast or getLink returned for a string of that length.
+     * Returns the node whose edge the next position is on or ends at, or -1
+     * if nothing continues with c.
+     */
+    public int getLink(int node, int depth, char c) {
+        if (depth < depths.get(node)) {
+            return labelAt(node, depth) == c ? node : -1;
+        }
+        int lo = firstChild.get(node);
+        int hi = firstChild.get(node + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labelAt(mid, depth);
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the weight of a given term. If it is not in the dictionary, return 0.0.
+     * With folded keys only the exact spelling counts, not the others sharing its key.
+     */
+    public double weightOf(String term) {
+        int node = getLast(term);
+        if (node < 0 || depths.get(node) != term.length()) {
+            return 0.0;
+        }
+        int id = termIds.get(node);
+        if (id >= 0 && (!foldKeys || getTerm(id).equals(term))) {
+            return weight.get(node);
+        }
+        int p = foldKeys && postingNodes.limit() > 0 ? postingsOf(node) : -1;
+        if (p >= 0) {
+            for (int i = postingStarts.get(p); i < postingSplits.get(p); i++) {
+                if (getTerm(postingIds.get(i)).equals(term)) {
+                    return postingWeights.get(i);
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Return the top match for given prefix, or null if there is no matching term.
+     */
+    public String topMatch(String prefix) {
+        int head = getLast(prefix);
+        if (head < 0) {
+            return null;
+        }
+        // the heaviest child is the first one in weight order
+        while (termIds.get(head) < 0 || weight.get(head) != maxWeight.get(head)) {
+            int p = postingNodes.limit() == 0 ? -1 : postingsOf(head);
+            if (p >= 0) {
+                // the heaviest posting or token may be what set maxWeight
+                int first = postingStarts.get(p);
+                int split = postingSplits.get(p);
+                if (first < split && postingWeights.get(first) == maxWeight.get(head)) {
+                    return getTerm(postingIds.get(first));
+                }
+                if (split < postingStarts.get(p + 1)
+                        && postingWeights.get(split) == maxWeight.get(head)) {
+                    return getTerm(postingIds.get(split));
+                }
+            }
+            if (firstChild.get(head) == firstChild.get(head + 1)) {
+                return null;
+            }
+            head = byWeight.get(firstChild.get(head));
+        }
+        return getTerm(termIds.get(head));
+    }
+
+    public String getTerm(int id) {
+        String cached = termCache[id];
+        if (cached == null) {
+            CharBuffer term = termChars.duplicate();
+            term.position(termStarts.get(id)).limit(termStarts.get(id + 1));
+            cached = term.toString();
+            termCache[id] = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * Best-first search for the k heaviest words below prefix. Leaves their
+     * term ids in context.getResults(), heaviest first, and returns how many
+     * there are.
+     */
+    public int topMatches(String prefix, int k, SearchContext context) {
+        return topMatches(getLast(prefix), k, context);
+    }
+
+    /**
+     * Like topMatches(prefix, k, context), starting from the node with the
+     * given index, or finding nothing if it is -1.
+     */
+    public int topMatches(int head, int k, SearchContext context) {
+        if (head < 0 || k == 0) {
+            return 0;
+        }
+
+        int c = topMatchesK == 0 ? -1 : indexOf(cacheNodes, head);
+        if (c >= 0) {
+            int from = cacheStarts.get(c);
+            int length = cacheStarts.get(c + 1) - from;
+            if (k <= length || length < topMatchesK) {
+                int count = Math.min(k, length);
+                int[] results = context.resultBuffer(count);
+                double[] weights = context.getResultWeights();
+                for (int i = 0; i < count; i++) {
+                    results[i] = cacheIds.get(from + i);
+                    weights[i] = cacheWeights.get(from + i);
+                }
+                return count;
+            }
+        }
+
+        context.reset();
+        context.pushFringe(maxWeight.get(head), head);
+        while (!context.fringeIsEmpty()) {
+            // nothing left on the fringe can beat the k-th best word
+            if (context.numBest() == k && context.peekFringe() <= context.minBest()) {
+                break;
+            }
+            int n = context.popFringe();
+            offerTerms(n, k, context);
+            // children come heaviest first, so stop at the first one that
+            // cannot beat the k-th best word
+            int end = firstChild.get(n + 1);
+            for (int i = firstChild.get(n); i < end; i++) {
+                int child = byWeight.get(i);
+                double childMax = maxWeight.get(child);
+                if (context.numBest() == k && childMax <= context.minBest()) {
+                    context.addPruned(end - i);
+                    break;
+                }
+                context.pushFringe(childMax, child);
+            }
+        }
+        return context.drainBest();
+    }
+
+    /**
+     * Fuzzy counterpart of topMatches: finds the k heaviest words that
+     * start with a string within maxEdits of prefix, which must already be
+     * folded if the keys are. Leaves their term ids
+     * in context.getResults(), heaviest first, and returns how many there
+     * are.
+     */
+    public int fuzzyTopMatches(String prefix, int k, int maxEdits, SearchContext context) {
+        context.reset();
+        if (k == 0) {
+            return 0;
+        }
+        PriorityQueue<FuzzyEntry> fringe = new PriorityQueue<>();
+        fringe.add(new FuzzyEntry(ROOT, maxWeight.get(ROOT), EditRows.first(prefix)));
+        while (!fringe.isEmpty()) {
+            FuzzyEntry e = fringe.poll();
+            // nothing left in the fringe can beat the k-th best word
+            if (context.numBest() == k && e.maxWeight <= context.minBest()) {
+                break;
+            }
+            int[] row = e.row;
+            if (row != null && EditRows.matchesAll(row, maxEdits)) {
+                row = null;
+            }
+            int n = e.node;
+            if (row == null) {
+                offerTerms(n, k, context);
+            }
+            int end = firstChild.get(n + 1);
+            for (int i = firstChild.get(n); i < end; i++) {
+                int child = byWeight.get(i);
+                double childMax = maxWeight.get(child);
+                if (context.numBest() == k && childMax <= context.minBest()) {
+                    break;
+                }
+                // extend the row along the edge; the nodes collapsed into it
+                // hold no words, so the row can be dropped part way
+                int[] next = row;
+                for (int d = depths.get(n); next != null && d < depths.get(child); d++) {
+                    if (EditRows.matchesAll(next, maxEdits)) {
+                        break;
+                    }
+                    next = EditRows.next(next, prefix, labelAt(child, d), maxEdits);
+                    if (next == null) {
+                        break;
+                    }
+                }
+                if (row != null && next == null) {
+                    continue;
+                }
+                fringe.add(new FuzzyEntry(child, childMax, next));
+            }
+        }
+        return context.drainBest();
+    }
+
+    /**
+     * A fringe entry of the fuzzy search, ordered heaviest first.
+     */
+    private static final class FuzzyEntry implements Comparable<FuzzyEntry> {
+
+        final int node;
+        final double maxWeight;
+        // edit distance row of the node's path, or null once every word
+        // below the node matches
+        final int[] row;
+
+        FuzzyEntry(int node, double maxWeight, int[] row) {
+            this.node = node;
+            this.maxWeight = maxWeight;
+            this.row = row;
+        }
+
+        @Override
+        public int compareTo(FuzzyEntry other) {
+            return -1 * Double.compare(maxWeight, other.maxWeight);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for fuzzyTopMatches on prefixes with one typo: a
+ * character dropped, doubled or replaced by its neighbour in the term.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FuzzyTopMatchesBenchmark {
+
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"wiktionary.txt", "cities.txt"})
+    public String dictionary;
+
+    @Param({"typed", "full"})
+    public String prefixLengths;
+
+    @Param({"1", "2"})
+    public int maxEdits;
+
+    @Param({"10"})
+    public int k;
+
+    private Autocomplete autocomplete;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkDictionary data = new BenchmarkDictionary(dictionary, prefixLengths);
+        autocomplete = new Autocomplete(data.getTerms(), data.getWeights());
+        Random random = new Random(23);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = typo(data.next(), random);
+        }
+    }
+
+    static String typo(String s, Random random) {
+        if (s.length() < 2) {
+            return s;
+        }
+        int i = random.nextInt(s.length() - 1);
+        switch (random.nextInt(3)) {
+            case 0:
+                return s.substring(0, i) + s.substring(i + 1);
+            case 1:
+                return s.substring(0, i + 1) + s.substring(i);
+            default:
+                return s.substring(0, i) + s.charAt(i + 1) + s.substring(i + 1);
+        }
+    }
+
+    @Benchmark
+    public Iterable<String> fuzzyTopMatches() {
+        String query = queries[next];
+        next = (next + 1) & (QUERIES - 1);
+        return autocomplete.fuzzyTopMatches(query, k, maxEdits);
+    }
+}
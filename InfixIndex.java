@@ -0,0 +1,284 @@
+/**
+ * Suffix array over the terms of a dictionary, for finding the heaviest
+ * terms that contain a query anywhere, such as "Buenos Aires, Argentina"
+ * for "argentina" or "aires". The suffixes matching a query form one
+ * range of the array. A segment tree keeps the largest weight of every
+ * block of suffixes, so the range is searched best-first like the trie
+ * and the search stops after k distinct terms instead of collecting every
+ * occurrence. The index is a snapshot: later changes to the trie it was
+ * built from are not reflected.
+ *
+ * @author
+ */
+public class InfixIndex {
+
+    // suffixes per leaf of the segment tree
+    private static final int BLOCK = 16;
+    // subarrays this small are insertion sorted
+    private static final int CUTOFF = 16;
+
+    private final String[] terms;
+    private final double[] weights;
+    private final boolean foldKeys;
+    // keys of all terms, each followed by a 0 char
+    private final char[] pool;
+    // term i starts at pool[termStarts[i]]
+    private final int[] termStarts;
+    // pool positions of every suffix, in sorted order
+    private final int[] suffixes;
+    // id of the term each suffix belongs to
+    private final int[] suffixTerms;
+    // largest weight below each node of the segment tree; node 1 is the
+    // root, and leaves + b is the leaf of suffixes b * BLOCK onwards
+    private final double[] maxWeight;
+    private final int leaves;
+
+    /**
+     * Indexes every term of trie under the same keys as the trie.
+     */
+    public InfixIndex(Trie trie) {
+        int n = trie.numTerms();
+        terms = new String[n];
+        weights = new double[n];
+        foldKeys = trie.foldsKeys();
+        termStarts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            terms[i] = trie.getTerm(i);
+            weights[i] = trie.getTermWeight(i);
+            termStarts[i + 1] = termStarts[i] + terms[i].length() + 1;
+        }
+
+        pool = new char[termStarts[n]];
+        suffixes = new int[termStarts[n] - n];
+        for (int i = 0, s = 0; i < n; i++) {
+            for (int j = 0; j < terms[i].length(); j++) {
+                pool[termStarts[i] + j] = keyOf(terms[i].charAt(j));
+                suffixes[s++] = termStarts[i] + j;
+            }
+        }
+        sort(0, suffixes.length - 1, 0);
+        suffixTerms = new int[suffixes.length];
+        for (int i = 0; i < suffixes.length; i++) {
+            suffixTerms[i] = termOf(suffixes[i]);
+        }
+
+        int blocks = (suffixes.length + BLOCK - 1) / BLOCK;
+        int size = 1;
+        while (size < blocks) {
+            size *= 2;
+        }
+        leaves = size;
+        maxWeight = new double[2 * leaves];
+        for (int i = 0; i < suffixes.length; i++) {
+            int leaf = leaves + i / BLOCK;
+            maxWeight[leaf] = Math.max(maxWeight[leaf], weights[suffixTerms[i]]);
+        }
+        for (int v = leaves - 1; v > 0; v--) {
+            maxWeight[v] = Math.max(maxWeight[2 * v], maxWeight[2 * v + 1]);
+        }
+    }
+
+    private char keyOf(char c) {
+        return foldKeys ? KeyFolding.fold(c) : c;
+    }
+
+    /**
+     * Returns the char at depth d of the suffix at pos, or 0 past its end.
+     */
+    private int charAt(int pos, int d) {
+        return pool[pos + d];
+    }
+
+    /**
+     * Three-way radix quicksort of suffixes[lo..hi], which agree on their
+     * first d chars.
+     */
+    private void sort(int lo, int hi, int d) {
+        if (hi <= lo + CUTOFF) {
+            insertionSort(lo, hi, d);
+            return;
+        }
+        swap(lo, (lo + hi) >>> 1);
+        int v = charAt(suffixes[lo], d);
+        int lt = lo;
+        int gt = hi;
+        int i = lo + 1;
+        while (i <= gt) {
+            int c = charAt(suffixes[i], d);
+            if (c < v) {
+                swap(lt++, i++);
+            } else if (c > v) {
+                swap(i, gt--);
+            } else {
+                i++;
+            }
+        }
+        sort(lo, lt - 1, d);
+        if (v > 0) {
+            sort(lt, gt, d + 1);
+        }
+        sort(gt + 1, hi, d);
+    }
+
+    private void insertionSort(int lo, int hi, int d) {
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(suffixes[j], suffixes[j - 1], d); j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private boolean less(int a, int b, int d) {
+        while (true) {
+            int ca = charAt(a, d);
+            int cb = charAt(b, d);
+            if (ca != cb) {
+                return ca < cb;
+            }
+            if (ca == 0) {
+                return false;
+            }
+            d++;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tmp = suffixes[i];
+        suffixes[i] = suffixes[j];
+        suffixes[j] = tmp;
+    }
+
+    /**
+     * Returns the id of the term containing pool position pos.
+     */
+    private int termOf(int pos) {
+        int lo = 0;
+        int hi = terms.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (termStarts[mid] <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the suffix at pos, cut to the length of query, with the key
+     * of query.
+     */
+    private int compare(int pos, String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = pool[pos + i];
+            char q = keyOf(query.charAt(i));
+            if (c == 0 || c < q) {
+                return -1;
+            } else if (c > q) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the first index of suffixes whose suffix, cut to the length
+     * of query, compares greater than query, or at least as great if
+     * inclusive is set.
+     */
+    private int bound(String query, boolean inclusive) {
+        int lo = 0;
+        int hi = suffixes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(suffixes[mid], query);
+            if (cmp < 0 || cmp == 0 && !inclusive) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int numTerms() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the number of suffixes indexed.
+     */
+    public int size() {
+        return suffixes.length;
+    }
+
+    public String getTerm(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Best-first search for the k heaviest terms containing query. Leaves
+     * their ids in context.getResults(), heaviest first, and returns how
+     * many there are.
+     */
+    public int topMatches(String query, int k, SearchContext context) {
+        context.reset();
+        int lo = bound(query, true);
+        int hi = bound(query, false);
+        if (k == 0 || lo == hi) {
+            return 0;
+        }
+        // fringe values are segment tree nodes, or -(i + 1) for suffixes[i]
+        int first = (lo + BLOCK - 1) / BLOCK;
+        int last = hi / BLOCK;
+        if (first >= last) {
+            pushSuffixes(lo, hi, context);
+        } else {
+            pushSuffixes(lo, first * BLOCK, context);
+            pushSuffixes(last * BLOCK, hi, context);
+            for (int l = leaves + first, r = leaves + last; l < r; l >>>= 1, r >>>= 1) {
+                if ((l & 1) == 1) {
+                    context.pushFringe(maxWeight[l], l++);
+                }
+                if ((r & 1) == 1) {
+                    context.pushFringe(maxWeight[--r], r);
+                }
+            }
+        }
+
+        int[] results = context.resultBuffer(Math.min(k, terms.length));
+        double[] resultWeights = context.getResultWeights();
+        int count = 0;
+        while (count < k && !context.fringeIsEmpty()) {
+            int v = context.popFringe();
+            if (v >= leaves) {
+                int from = (v - leaves) * BLOCK;
+                pushSuffixes(from, Math.min(from + BLOCK, suffixes.length), context);
+            } else if (v > 0) {
+                context.pushFringe(maxWeight[2 * v], 2 * v);
+                context.pushFringe(maxWeight[2 * v + 1], 2 * v + 1);
+            } else {
+                int id = suffixTerms[-v - 1];
+                double weight = weights[id];
+                // terms pop in order of weight, so a term matching more
+                // than once repeats among the last results of its weight
+                boolean seen = false;
+                for (int i = count - 1; i >= 0 && resultWeights[i] == weight && !seen; i--) {
+                    seen = results[i] == id;
+                }
+                if (!seen) {
+                    resultWeights[count] = weight;
+                    results[count++] = id;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void pushSuffixes(int from, int to, SearchContext context) {
+        for (int i = from; i < to; i++) {
+            context.pushFringe(weights[suffixTerms[i]], -i - 1);
+        }
+    }
+}
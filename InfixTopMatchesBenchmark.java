@@ -0,0 +1,66 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for building an InfixIndex and for infixTopMatches on
+ * substrings cut from anywhere in weight-proportionally drawn terms.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class InfixTopMatchesBenchmark {
+
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"wiktionary.txt", "cities.txt"})
+    public String dictionary;
+
+    @Param({"1", "3", "6"})
+    public int queryLength;
+
+    @Param({"10"})
+    public int k;
+
+    private BenchmarkDictionary data;
+    private Autocomplete autocomplete;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new BenchmarkDictionary(dictionary, "full");
+        autocomplete = new Autocomplete(data.getTerms(), data.getWeights(), false,
+                Autocomplete.INFIX_SEARCH);
+        Random random = new Random(29);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String term = data.next();
+            int from = random.nextInt(Math.max(1, term.length() - queryLength + 1));
+            queries[i] = term.substring(from, Math.min(term.length(), from + queryLength));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public InfixIndex build() {
+        return new InfixIndex(autocomplete.getDictionary());
+    }
+
+    @Benchmark
+    public Iterable<String> infixTopMatches() {
+        String query = queries[next];
+        next = (next + 1) & (QUERIES - 1);
+        return autocomplete.infixTopMatches(query, k);
+    }
+}
@@ -0,0 +1,54 @@
+import java.text.Normalizer;
+
+/**
+ * Case- and accent-insensitive keys. Every char is folded to the lower
+ * case of its base letter, so "S&atilde;o Paulo" and "sao paulo" fold to
+ * the same key. Folding works char by char from a table computed once, so
+ * a key has the same length as its term and folding a query on the fly
+ * allocates nothing. Combining marks that are not part of a precomposed
+ * char, and letters whose folding takes several chars such as &szlig;, are
+ * only lower-cased.
+ *
+ * @author
+ */
+public class KeyFolding {
+
+    private static final char[] TABLE = buildTable();
+
+    private static char[] buildTable() {
+        char[] table = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char base = (char) c;
+            if (c >= 0x80 && !Character.isSurrogate((char) c)) {
+                String decomposed = Normalizer.normalize(String.valueOf((char) c),
+                        Normalizer.Form.NFD);
+                boolean marksOnly = true;
+                for (int i = 1; i < decomposed.length(); i++) {
+                    marksOnly &= Character.getType(decomposed.charAt(i))
+                            == Character.NON_SPACING_MARK;
+                }
+                if (marksOnly && Character.getType(decomposed.charAt(0))
+                        != Character.NON_SPACING_MARK) {
+                    base = decomposed.charAt(0);
+                }
+            }
+            table[c] = Character.toLowerCase(base);
+        }
+        return table;
+    }
+
+    public static char fold(char c) {
+        return TABLE[c];
+    }
+
+    /**
+     * Returns the key of s.
+     */
+    public static String fold(String s) {
+        char[] key = new char[s.length()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = TABLE[s.charAt(i)];
+        }
+        return new String(key);
+    }
+}
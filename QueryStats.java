@@ -0,0 +1,107 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the topMatches queries of one Autocomplete, collected
+ * while Autocomplete.enableStats() is in effect. Counts the nodes each
+ * search expanded, pushed onto its fringe and pruned, and keeps
+ * histograms of query latency and of nodes expanded per query, so a slow
+ * query can be told apart as a broad prefix, an exploding fringe or
+ * failed pruning. Safe for concurrent queries.
+ *
+ * @author
+ */
+public class QueryStats implements QueryStatsMXBean {
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder expanded = new LongAdder();
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final Histogram latency = new Histogram();
+    private final Histogram expandedPerQuery = new Histogram();
+
+    /**
+     * Records one query from the counts left in its search context.
+     */
+    void record(SearchContext context, long nanos) {
+        queries.increment();
+        expanded.add(context.getPops());
+        pushes.add(context.getPushes());
+        pruned.add(context.getPruned());
+        latency.record(nanos);
+        expandedPerQuery.record(context.getPops());
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under
+     * Autocomplete:type=QueryStats,name=name.
+     */
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("Autocomplete:type=QueryStats,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot register " + name, e);
+        }
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public Histogram getNodesExpandedPerQuery() {
+        return expandedPerQuery;
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getNodesExpanded() {
+        return expanded.sum();
+    }
+
+    @Override
+    public long getFringePushes() {
+        return pushes.sum();
+    }
+
+    @Override
+    public long getChildrenPruned() {
+        return pruned.sum();
+    }
+
+    @Override
+    public long getNodesExpandedP99() {
+        return expandedPerQuery.percentile(0.99);
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latency.percentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latency.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP999Micros() {
+        return latency.percentile(0.999) / 1e3;
+    }
+
+    @Override
+    public void reset() {
+        queries.reset();
+        expanded.reset();
+        pushes.reset();
+        pruned.reset();
+        latency.clear();
+        expandedPerQuery.clear();
+    }
+}
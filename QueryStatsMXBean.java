@@ -0,0 +1,26 @@
+/**
+ * Management interface of QueryStats, as shown by JMX clients such as
+ * jconsole.
+ *
+ * @author
+ */
+public interface QueryStatsMXBean {
+
+    long getQueries();
+
+    long getNodesExpanded();
+
+    long getFringePushes();
+
+    long getChildrenPruned();
+
+    long getNodesExpandedP99();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyP999Micros();
+
+    void reset();
+}
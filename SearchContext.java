@@ -0,0 +1,269 @@
+import java.util.*;
+
+/**
+ * Reusable scratch space for the best-first topMatches search.
+ * Holds the fringe as a max-heap on maxWeight and the best words found so
+ * far as a min-heap on weight, both in primitive arrays that only grow.
+ * Once warmed up a search allocates nothing. A context is not thread-safe;
+ * Autocomplete keeps one per thread.
+ *
+ * @author
+ */
+public class SearchContext {
+
+    // fringe heap, keyed on maxWeight; values are node numbers
+    private double[] fringeKeys = new double[64];
+    private int[] fringeValues = new int[64];
+    private int fringeSize;
+
+    // Trie nodes currently referenced from the fringe, by node number
+    private Trie.Node[] nodes = new Trie.Node[64];
+    private int numNodes;
+
+    // heap of the best words so far, keyed on weight; values are term ids
+    private double[] bestKeys = new double[16];
+    private int[] bestIds = new int[16];
+    private int bestSize;
+
+    // counts for the current search, read by QueryStats
+    private int pushes;
+    private int pops;
+    private int pruned;
+
+    private int[] results = new int[16];
+    private double[] resultWeights = new double[16];
+
+    /**
+     * Empties the context for a new search.
+     */
+    public void reset() {
+        pushes = 0;
+        pops = 0;
+        pruned = 0;
+        fringeSize = 0;
+        bestSize = 0;
+        Arrays.fill(nodes, 0, numNodes, null);
+        numNodes = 0;
+    }
+
+    public boolean fringeIsEmpty() {
+        return fringeSize == 0;
+    }
+
+    /**
+     * Returns the largest key on the fringe.
+     */
+    public double peekFringe() {
+        return fringeKeys[0];
+    }
+
+    /**
+     * Adds a node number to the fringe with the given maxWeight.
+     */
+    public void pushFringe(double maxWeight, int value) {
+        pushes++;
+        if (fringeSize == fringeKeys.length) {
+            fringeKeys = Arrays.copyOf(fringeKeys, 2 * fringeSize);
+            fringeValues = Arrays.copyOf(fringeValues, 2 * fringeSize);
+        }
+        int i = fringeSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (fringeKeys[parent] >= maxWeight) {
+                break;
+            }
+            fringeKeys[i] = fringeKeys[parent];
+            fringeValues[i] = fringeValues[parent];
+            i = parent;
+        }
+        fringeKeys[i] = maxWeight;
+        fringeValues[i] = value;
+    }
+
+    /**
+     * Adds a Trie node to the fringe.
+     */
+    public void pushFringe(Trie.Node n) {
+        if (numNodes == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * numNodes);
+        }
+        nodes[numNodes] = n;
+        pushFringe(n.getMaxWeight(), numNodes++);
+    }
+
+    /**
+     * Removes the fringe entry with the largest key and returns its value.
+     */
+    public int popFringe() {
+        pops++;
+        int top = fringeValues[0];
+        fringeSize--;
+        double key = fringeKeys[fringeSize];
+        int value = fringeValues[fringeSize];
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < fringeSize) {
+            if (child + 1 < fringeSize && fringeKeys[child + 1] > fringeKeys[child]) {
+                child++;
+            }
+            if (key >= fringeKeys[child]) {
+                break;
+            }
+            fringeKeys[i] = fringeKeys[child];
+            fringeValues[i] = fringeValues[child];
+            i = child;
+        }
+        fringeKeys[i] = key;
+        fringeValues[i] = value;
+        return top;
+    }
+
+    /**
+     * Returns the Trie node with the given node number.
+     */
+    public Trie.Node node(int value) {
+        return nodes[value];
+    }
+
+    /**
+     * Counts n children skipped because they cannot beat the best words.
+     */
+    public void addPruned(int n) {
+        pruned += n;
+    }
+
+    /**
+     * Returns the number of fringe pushes since the last reset.
+     */
+    public int getPushes() {
+        return pushes;
+    }
+
+    /**
+     * Returns the number of nodes popped and expanded since the last reset.
+     */
+    public int getPops() {
+        return pops;
+    }
+
+    /**
+     * Returns the number of children pruned since the last reset.
+     */
+    public int getPruned() {
+        return pruned;
+    }
+
+    public int numBest() {
+        return bestSize;
+    }
+
+    /**
+     * Returns the smallest weight among the best words so far.
+     */
+    public double minBest() {
+        return bestKeys[0];
+    }
+
+    /**
+     * Offers a word to the best words so far, keeping at most k of them.
+     */
+    public void offerBest(double weight, int termId, int k) {
+        if (bestSize < k) {
+            if (bestSize == bestKeys.length) {
+                bestKeys = Arrays.copyOf(bestKeys, 2 * bestSize);
+                bestIds = Arrays.copyOf(bestIds, 2 * bestSize);
+            }
+            int i = bestSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (bestKeys[parent] <= weight) {
+                    break;
+                }
+                bestKeys[i] = bestKeys[parent];
+                bestIds[i] = bestIds[parent];
+                i = parent;
+            }
+            bestKeys[i] = weight;
+            bestIds[i] = termId;
+        } else if (weight > bestKeys[0]) {
+            siftDownBest(0, weight, termId);
+        }
+    }
+
+    /**
+     * Offers a word like offerBest(weight, termId, k). With distinct set,
+     * a term that is already among the best words is ignored, for tries
+     * that can reach one term along several paths.
+     */
+    public void offerBest(double weight, int termId, int k, boolean distinct) {
+        for (int i = 0; distinct && i < bestSize; i++) {
+            if (bestIds[i] == termId) {
+                return;
+            }
+        }
+        offerBest(weight, termId, k);
+    }
+
+    private void siftDownBest(int i, double key, int id) {
+        int child;
+        while ((child = 2 * i + 1) < bestSize) {
+            if (child + 1 < bestSize && bestKeys[child + 1] < bestKeys[child]) {
+                child++;
+            }
+            if (key <= bestKeys[child]) {
+                break;
+            }
+            bestKeys[i] = bestKeys[child];
+            bestIds[i] = bestIds[child];
+            i = child;
+        }
+        bestKeys[i] = key;
+        bestIds[i] = id;
+    }
+
+    /**
+     * Empties the best words into the result array, heaviest first, and
+     * returns how many there were.
+     */
+    public int drainBest() {
+        int count = bestSize;
+        resultBuffer(count);
+        while (bestSize > 0) {
+            results[bestSize - 1] = bestIds[0];
+            resultWeights[bestSize - 1] = bestKeys[0];
+            bestSize--;
+            siftDownBest(0, bestKeys[bestSize], bestIds[bestSize]);
+        }
+        Arrays.fill(nodes, 0, numNodes, null);
+        numNodes = 0;
+        return count;
+    }
+
+    /**
+     * Returns the result array, grown to hold at least count term ids.
+     * The result weights grow along with it.
+     */
+    public int[] resultBuffer(int count) {
+        if (results.length < count) {
+            results = new int[Math.max(count, 2 * results.length)];
+            resultWeights = new double[results.length];
+        }
+        return results;
+    }
+
+    /**
+     * Returns the term ids found by the last search, heaviest first. The
+     * array is reused by the next search.
+     */
+    public int[] getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the weights of the terms found by the last search, in the
+     * same order as getResults(). The array is reused by the next search.
+     */
+    public double[] getResultWeights() {
+        return resultWeights;
+    }
+}
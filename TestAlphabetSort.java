@@ -0,0 +1,196 @@
+import ucb.junit.textui;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for AlphabetSort and AlphabetSorter.
+ *
+ * @author
+ */
+public class TestAlphabetSort {
+
+    /**
+     * Runs AlphabetSort.main on input and returns what it printed.
+     */
+    private static String run(String input) throws IOException {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(input.getBytes()));
+            System.setOut(new PrintStream(bytes, true));
+            AlphabetSort.main(new String[0]);
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    private static String lines(String... words) {
+        return String.join(System.lineSeparator(), words);
+    }
+
+    @Test
+    public void sortSimpleTest() throws IOException {
+        String input = "agdbecfhijklmnopqrsty\nhello\ngoodbye\ngoodday\nhelp\nhelldo\n"
+                + "sad\nsaddy\ncool\nsad\nxylophone\n";
+        assertEquals(lines("goodday", "goodbye", "cool", "helldo", "hello", "help",
+                "sad", "saddy"), run(input));
+        assertEquals(lines("b", "ba", "a"), run("ba\nba\na\nb\nba"));
+        assertEquals("", run("a\nb\nc"));
+    }
+
+    @Test
+    public void sortErrorsTest() throws IOException {
+        String[] inputs = {"\nword", "abca\nword", "abc\n", "abc\nab\n\nbc"};
+        for (String input : inputs) {
+            try {
+                run(input);
+                fail(input);
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+        }
+    }
+
+    @Test
+    public void sortRandomTest() throws IOException {
+        Random random = new Random(23);
+        for (int round = 0; round < 20; round++) {
+            // a shuffled alphabet, with some chars left out of it
+            ArrayList<Character> chars = new ArrayList<>();
+            for (char c = '!'; c <= '~'; c++) {
+                chars.add(c);
+            }
+            Collections.shuffle(chars, random);
+            StringBuilder order = new StringBuilder();
+            for (int i = 0; i < chars.size() - 20; i++) {
+                order.append(chars.get(i));
+            }
+            String alphabet = order.toString();
+
+            TreeSet<String> expected = new TreeSet<>((a, b) -> {
+                for (int i = 0; i < Math.min(a.length(), b.length()); i++) {
+                    int cmp = alphabet.indexOf(a.charAt(i)) - alphabet.indexOf(b.charAt(i));
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return a.length() - b.length();
+            });
+            StringBuilder input = new StringBuilder(alphabet);
+            int pool = 1 + random.nextInt(40);
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder word = new StringBuilder();
+                int length = 1 + random.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    word.append(chars.get(chars.size() - 1 - random.nextInt(pool)));
+                }
+                String w = word.toString();
+                input.append('\n').append(w);
+                boolean known = true;
+                for (int j = 0; j < w.length(); j++) {
+                    known &= alphabet.indexOf(w.charAt(j)) >= 0;
+                }
+                if (known) {
+                    expected.add(w);
+                }
+            }
+            assertEquals(String.join(System.lineSeparator(), expected), run(input.toString()));
+        }
+    }
+
+    @Test
+    public void spillToDiskTest() throws IOException {
+        Random random = new Random(31);
+        StringBuilder input = new StringBuilder("zyxwvutsrqponmlkjihgfedcba");
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(27)));
+            }
+            input.append('\n').append(word);
+        }
+        String expected = run(input.toString());
+        assertTrue(expected.length() > 0);
+        // 1k and 16k runs hold some 25 and 400 words, so the first takes
+        // two merge passes
+        for (String budget : new String[]{"1k", "16k", "1m"}) {
+            System.setProperty("alphabetsort.memory", budget);
+            try {
+                assertEquals(expected, run(input.toString()));
+            } finally {
+                System.clearProperty("alphabetsort.memory");
+            }
+        }
+    }
+
+    @Test
+    public void parallelSortTest() {
+        Random random = new Random(37);
+        AlphabetSorter sorter = new AlphabetSorter("qwertyuiopasdfghjklzxcvbnm");
+        for (int n : new int[]{0, 1, 15, 16, 100, 20000}) {
+            char[][] keys = new char[n][];
+            for (int i = 0; i < n; i++) {
+                // skewed first chars leave some partitions empty
+                keys[i] = new char[1 + random.nextInt(6)];
+                keys[i][0] = (char) (1 + random.nextInt(1 + random.nextInt(26)));
+                for (int j = 1; j < keys[i].length; j++) {
+                    keys[i][j] = (char) (1 + random.nextInt(26));
+                }
+            }
+            char[][] expected = keys.clone();
+            sorter.sort(expected, n);
+            sorter.sort(keys, n, true);
+            for (int i = 1; i < n; i++) {
+                assertTrue(AlphabetSorter.compare(keys[i - 1], keys[i]) <= 0);
+            }
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals(expected[i], keys[i]);
+            }
+        }
+    }
+
+    @Test
+    public void memoryBudgetTest() {
+        try {
+            System.setProperty("alphabetsort.memory", "123");
+            assertEquals(123, AlphabetSort.memoryBudget());
+            System.setProperty("alphabetsort.memory", "64M");
+            assertEquals(64L << 20, AlphabetSort.memoryBudget());
+            System.setProperty("alphabetsort.memory", "3g");
+            assertEquals(3L << 30, AlphabetSort.memoryBudget());
+            for (String budget : new String[]{"", "0", "-1k", "lots"}) {
+                System.setProperty("alphabetsort.memory", budget);
+                try {
+                    AlphabetSort.memoryBudget();
+                    fail(budget);
+                } catch (IllegalArgumentException e) {
+                    assertTrue(true);
+                }
+            }
+        } finally {
+            System.clearProperty("alphabetsort.memory");
+        }
+    }
+
+    /**
+     * Run the JUnit tests above.
+     */
+    public static void main(String[] ignored) {
+        textui.runClasses(TestAlphabetSort.class);
+    }
+}
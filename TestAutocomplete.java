@@ -1,8 +1,18 @@
 import ucb.junit.textui;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -196,6 +206,831 @@ public class TestAutocomplete {
         assertEquals(expected, a.topMatches("c", 2));
     }
 
+    @Test
+    public void frozenMatchesTest() {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "Melbourne, Victoria, Australia", "Montreal, "
+                + "Quebec, Canada", "Madrid, Spain", "cat", "car", "cab", "cars"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+        Autocomplete a = new Autocomplete(words, weights);
+        Autocomplete frozen = new Autocomplete(words, weights);
+        frozen.freeze();
+
+        assertTrue(frozen.isFrozen());
+        assertNull(frozen.getDictionary());
+        for (String prefix : new String[]{"", "M", "Mo", "ca", "car", "x"}) {
+            assertEquals(a.topMatches(prefix, 3), frozen.topMatches(prefix, 3));
+            assertEquals(a.topMatch(prefix), frozen.topMatch(prefix));
+        }
+        assertTrue(frozen.weightOf("Moscow, Russia") == 4);
+        assertTrue(frozen.weightOf("Moscow") == 0);
+    }
+
+    @Test
+    public void cachedTopMatchesTest() {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "Melbourne, Victoria, Australia", "Montreal, "
+                + "Quebec, Canada", "Madrid, Spain", "cat", "car", "cab", "cars"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+        Autocomplete a = new Autocomplete(words, weights);
+        Autocomplete cached = new Autocomplete(words, weights);
+        cached.cacheTopMatches(2, 1);
+
+        assertEquals(2, cached.getDictionary().getRoot().getLink('M').getTopMatches().length);
+        assertNull(cached.getDictionary().getLast("Mo").getTopMatches());
+        for (String prefix : new String[]{"", "M", "Mo", "c", "ca", "x"}) {
+            for (int k = 0; k <= 5; k++) {
+                assertEquals(a.topMatches(prefix, k), cached.topMatches(prefix, k));
+            }
+        }
+    }
+
+    @Test
+    public void topMatchesBufferTest() {
+        String[] words = {"cat", "car", "cab", "cars"};
+        double[] weights = {1, 2, 3, 4};
+
+        Autocomplete a = new Autocomplete(words, weights);
+        String[] out = new String[3];
+
+        assertEquals(3, a.topMatches("ca", 3, out));
+        assertArrayEquals(new String[]{"cars", "cab", "car"}, out);
+        assertEquals(1, a.topMatches("cat", 3, out));
+        assertEquals("cat", out[0]);
+        assertEquals(0, a.topMatches("dog", 3, out));
+
+        try {
+            a.topMatches("ca", 4, out);
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void parallelConstructorTest() {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "Melbourne, Victoria, Australia", "Montreal, "
+                + "Quebec, Canada", "Madrid, Spain", "cat", "car", "cab", "cars", "c"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+
+        Autocomplete a = new Autocomplete(words, weights);
+        Autocomplete parallel = new Autocomplete(words, weights, true);
+
+        for (String prefix : new String[]{"", "M", "Mo", "c", "ca", "x"}) {
+            assertEquals(a.topMatches(prefix, 3), parallel.topMatches(prefix, 3));
+            assertEquals(a.topMatch(prefix), parallel.topMatch(prefix));
+        }
+        assertTrue(parallel.weightOf("c") == 12);
+        assertEquals(12, parallel.getDictionary().numTerms());
+
+        String[] duplicates = {"cat", "dog", "cat"};
+        try {
+            new Autocomplete(duplicates, new double[]{1, 2, 3}, true);
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void concurrentVersionsTest() {
+        String[] words = {"cat", "car", "cab", "cars", "c", "Moscow, Russia"};
+        double[] weights = {8, 9, 10, 11, 12, 4};
+        ConcurrentAutocomplete ac = new ConcurrentAutocomplete(words, weights);
+        Autocomplete before = ac.current();
+
+        ac.insertAll(new String[]{"cart", "Mo", "dog"}, new double[]{20, 1, 3});
+        Autocomplete after = ac.current();
+
+        assertEquals(Arrays.asList("c", "cars", "cab"), before.topMatches("c", 3));
+        assertTrue(before.weightOf("cart") == 0);
+        assertEquals(null, before.topMatch("d"));
+        assertEquals("Moscow, Russia", before.topMatch("Mo"));
+
+        assertEquals(Arrays.asList("cart", "c", "cars"), ac.topMatches("c", 3));
+        assertEquals(Arrays.asList("cart", "cars", "car"), after.topMatches("car", 3));
+        assertTrue(ac.weightOf("cart") == 20);
+        assertEquals("dog", ac.topMatch("d"));
+        assertEquals(Arrays.asList("Moscow, Russia", "Mo"), ac.topMatches("M", 5));
+
+        try {
+            ac.insertAll(new String[]{"bird", "cat"}, new double[]{1, 2});
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        assertTrue(ac.current() == after);
+        assertTrue(ac.weightOf("bird") == 0);
+    }
+
+    @Test
+    public void siblingVersionsTest() {
+        Trie base = new Trie();
+        base.insertAll(new String[]{"cat", "car"}, new double[]{2, 3}, false);
+        Trie x = base.withInserts(new String[]{"cab"}, new double[]{5});
+        Trie y = base.withInserts(new String[]{"dog", "cow"}, new double[]{7, 1});
+        Trie z = x.withInserts(new String[]{"cart"}, new double[]{4});
+
+        assertEquals(2, base.numTerms());
+        assertEquals("cab", x.getTerm(2));
+        assertTrue(x.getTermWeight(2) == 5);
+        assertEquals(3, x.numTerms());
+        assertEquals("dog", y.getTerm(2));
+        assertTrue(y.getTermWeight(2) == 7);
+        assertEquals("cow", y.getTerm(3));
+        assertEquals("cab", z.getTerm(2));
+        assertEquals("cart", z.getTerm(3));
+        assertTrue(z.getTermWeight(3) == 4);
+
+        assertEquals(Arrays.asList("cab", "car", "cat"),
+                new Autocomplete(x).topMatches("c", 5));
+        assertEquals(Arrays.asList("car", "cat", "cow"),
+                new Autocomplete(y).topMatches("c", 5));
+        assertEquals(Arrays.asList("cab", "cart", "car", "cat"),
+                new Autocomplete(z).topMatches("ca", 5));
+        assertTrue(new Autocomplete(x).weightOf("cab") == 5);
+        assertTrue(new Autocomplete(y).weightOf("dog") == 7);
+        assertTrue(new Autocomplete(y).weightOf("cab") == 0);
+    }
+
+    @Test
+    public void updateWeightTest() {
+        String[] words = {"cat", "car", "cab", "cars", "c", "Moscow, Russia"};
+        double[] weights = {8, 9, 10, 11, 12, 4};
+        Autocomplete a = new Autocomplete(words, weights);
+        a.cacheTopMatches(2, 3);
+
+        a.updateWeight("c", 1);
+        a.incrementWeight("cat", 5);
+        assertEquals("cat", a.topMatch("c"));
+        assertEquals(Arrays.asList("cat", "cars", "cab", "car", "c"), a.topMatches("c", 6));
+        assertEquals(Arrays.asList("cat", "cars"), a.topMatches("ca", 2));
+        assertTrue(a.weightOf("cat") == 13);
+
+        a.freeze();
+        try {
+            a.updateWeight("cat", 1);
+            assertFalse(true);
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void removeStressTest() {
+        Random random = new Random(13);
+        HashMap<String, Double> reference = new HashMap<>();
+        Autocomplete a = new Autocomplete(new String[0], new double[0]);
+
+        for (int op = 0; op < 20000; op++) {
+            if (op % 500 == 0) {
+                a.cacheTopMatches(3, 2);
+            }
+            String term = randomTerm(random);
+            int kind = random.nextInt(4);
+            if (kind == 0 || kind == 1) {
+                double weight = random.nextDouble();
+                assertEquals(!reference.containsKey(term), a.insert(term, weight));
+                reference.putIfAbsent(term, weight);
+            } else if (kind == 2) {
+                assertEquals(reference.remove(term) != null, a.remove(term));
+            } else if (reference.containsKey(term)) {
+                double weight = random.nextDouble();
+                a.updateWeight(term, weight);
+                reference.put(term, weight);
+            }
+
+            String prefix = randomTerm(random).substring(1);
+            int k = random.nextInt(6);
+            ArrayList<String> expected = new ArrayList<>();
+            for (String t : reference.keySet()) {
+                if (t.startsWith(prefix)) {
+                    expected.add(t);
+                }
+            }
+            expected.sort((x, y) -> -1 * Double.compare(reference.get(x), reference.get(y)));
+            assertEquals(expected.isEmpty() ? null : expected.get(0), a.topMatch(prefix));
+            assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                    a.topMatches(prefix, k));
+            assertTrue(a.weightOf(term) == reference.getOrDefault(term, 0.0));
+        }
+        assertEquals(reference.size(), a.getDictionary().numTerms());
+    }
+
+    private static String randomTerm(Random random) {
+        char[] chars = new char[1 + random.nextInt(4)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(3));
+        }
+        return new String(chars);
+    }
+
+    @Test
+    public void topMatchesBatchTest() {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "Melbourne, Victoria, Australia", "Montreal, "
+                + "Quebec, Canada", "Madrid, Spain", "cat", "car", "cab", "cars", "c"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        List<String> prefixes = Arrays.asList("Mo", "ca", "", "M", "x", "Mox", "ca", "Mon",
+                "c", "Moscow, Russia!", "Mo");
+
+        Autocomplete a = new Autocomplete(words, weights);
+        List<List<String>> batch = a.topMatchesBatch(prefixes, 3);
+        assertEquals(prefixes.size(), batch.size());
+        for (int i = 0; i < prefixes.size(); i++) {
+            assertEquals(a.topMatches(prefixes.get(i), 3), batch.get(i));
+        }
+        assertEquals(batch, a.topMatchesBatch(prefixes, 3, true));
+
+        a.freeze();
+        assertEquals(batch, a.topMatchesBatch(prefixes, 3));
+    }
+
+    @Test
+    public void sessionTest() {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "Melbourne, Victoria, Australia", "Montreal, "
+                + "Quebec, Canada", "Madrid, Spain", "cat", "car", "cab", "cars", "c"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        Autocomplete a = new Autocomplete(words, weights);
+        a.cacheTopMatches(2, 1);
+
+        for (int pass = 0; pass < 2; pass++) {
+            AutocompleteSession session = new AutocompleteSession(a, 3);
+            for (String text : new String[]{"", "M", "Mo", "Mox", "Moxy", "Mox", "Mo", "Mon", "",
+                "ca", "car", "c", "Moscow, Russia"}) {
+                session.setText(text);
+                assertEquals(text, session.getText());
+                ArrayList<String> matches = new ArrayList<>();
+                for (int i = 0; i < session.numMatches(); i++) {
+                    matches.add(session.getMatch(i));
+                    assertTrue(session.getMatchWeight(i) == a.weightOf(session.getMatch(i)));
+                }
+                assertEquals(a.topMatches(text, 3), matches);
+            }
+            session.backspace();
+            session.type('x');
+            assertEquals("Moscow, Russix", session.getText());
+            assertEquals(0, session.numMatches());
+            a.freeze();
+        }
+    }
+
+    @Test
+    public void topMatchesCacheTest() throws InterruptedException {
+        String[] words = {"cat", "car", "cab", "cars", "c", "Moscow, Russia"};
+        double[] weights = {8, 9, 10, 11, 12, 4};
+        Autocomplete a = new Autocomplete(words, weights);
+        TopMatchesCache cache = new TopMatchesCache(a, 2);
+
+        assertEquals(Arrays.asList("c", "cars", "cab"), cache.topMatches("c", 3));
+        assertEquals(Arrays.asList("c", "cars"), cache.topMatches("c", 2));
+        assertEquals(Arrays.asList("cars", "car"), cache.topMatches("car", 5));
+        assertEquals(Arrays.asList("cars", "car"), cache.topMatches("car", 4));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        a.updateWeight("car", 20);
+        assertEquals(Arrays.asList("car", "c", "cars"), cache.topMatches("c", 3));
+        a.insert("cart", 15);
+        assertEquals(Arrays.asList("car", "cart", "cars"), cache.topMatches("car", 5));
+        a.remove("car");
+        assertEquals(Arrays.asList("cart", "cars"), cache.topMatches("car", 5));
+        assertEquals(2, cache.getHits());
+
+        cache.topMatches("M", 1);
+        assertEquals(2, cache.size());
+        assertEquals(Arrays.asList("cart", "c"), cache.topMatches("c", 2));
+        assertEquals(7, cache.getMisses());
+        // "car" was the least recently used prefix
+        cache.topMatches("M", 1);
+        cache.topMatches("car", 1);
+        assertEquals(3, cache.getHits());
+        assertEquals(8, cache.getMisses());
+
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    String prefix = i % 3 == 0 ? "c" : i % 3 == 1 ? "ca" : "Mo";
+                    if (!a.topMatches(prefix, 2).equals(cache.topMatches(prefix, 2))) {
+                        failed[0] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+    }
+
+    @Test
+    public void queryStatsTest() {
+        String[] words = {"cat", "car", "cab", "cars", "c", "Moscow, Russia"};
+        double[] weights = {8, 9, 10, 11, 12, 4};
+        Autocomplete a = new Autocomplete(words, weights);
+        assertNull(a.getStats());
+
+        QueryStats stats = a.enableStats();
+        assertTrue(stats == a.enableStats());
+        // expands c, ca, car and cars, then stops before cab
+        a.topMatches("c", 2);
+        // expands c and prunes ca, which cannot beat it
+        a.topMatches("c", 1);
+        a.topMatches("x", 2);
+        assertEquals(3, stats.getQueries());
+        assertEquals(5, stats.getNodesExpanded());
+        assertEquals(7, stats.getFringePushes());
+        assertEquals(1, stats.getChildrenPruned());
+        assertEquals(4, stats.getNodesExpandedP99());
+        assertTrue(stats.getLatencyP50Micros() <= stats.getLatencyP999Micros());
+
+        a.disableStats();
+        a.topMatches("c", 2);
+        assertEquals(3, stats.getQueries());
+        stats.reset();
+        assertEquals(0, stats.getQueries());
+        assertTrue(stats.getLatencyP99Micros() == 0);
+    }
+
+    @Test
+    public void histogramTest() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(7, h.percentile(0.007));
+        long p50 = h.percentile(0.5);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        long p99 = h.percentile(0.99);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.125);
+        assertTrue(h.percentile(1) >= 1000);
+    }
+
+    @Test
+    public void fuzzyTopMatchesTest() {
+        String[] words = {"Shanghai, China", "Buenos Aires, Argentina", "Mumbai, India",
+            "Shenzhen, China", "Busan, South Korea", "Mexico City, Distrito Federal, Mexico"};
+        double[] weights = {14608512, 13076300, 12691836, 10358381, 3678555, 12294193};
+        Autocomplete a = new Autocomplete(words, weights);
+        assertEquals(Arrays.asList("Shanghai, China"), a.fuzzyTopMatches("Shangai", 3, 1));
+        assertEquals(Arrays.asList("Buenos Aires, Argentina"),
+                a.fuzzyTopMatches("Buenos Aries", 3, 2));
+        assertEquals(Arrays.asList(), a.fuzzyTopMatches("Buenos Aries", 3, 1));
+        assertEquals(Arrays.asList("Shanghai, China", "Shenzhen, China"),
+                a.fuzzyTopMatches("Shanz", 3, 1));
+        assertEquals(a.topMatches("Bu", 5), a.fuzzyTopMatches("Bu", 5, 0));
+
+        // compare against a brute-force edit distance over every term prefix
+        Random random = new Random(19);
+        String[] terms = new String[300];
+        double[] termWeights = new double[terms.length];
+        HashMap<String, Double> seen = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            do {
+                terms[i] = randomTerm(random) + randomTerm(random);
+            } while (seen.containsKey(terms[i]));
+            termWeights[i] = random.nextDouble();
+            seen.put(terms[i], termWeights[i]);
+        }
+        Autocomplete b = new Autocomplete(terms, termWeights);
+        Autocomplete frozen = new Autocomplete(terms, termWeights);
+        frozen.freeze();
+        for (int q = 0; q < 300; q++) {
+            String query = randomTerm(random) + randomTerm(random).substring(1);
+            int maxEdits = random.nextInt(3);
+            ArrayList<String> expected = new ArrayList<>();
+            for (String term : terms) {
+                if (prefixDistance(term, query) <= maxEdits) {
+                    expected.add(term);
+                }
+            }
+            expected.sort((x, y) -> -1 * Double.compare(seen.get(x), seen.get(y)));
+            List<String> top = expected.subList(0, Math.min(4, expected.size()));
+            assertEquals(top, b.fuzzyTopMatches(query, 4, maxEdits));
+            assertEquals(top, frozen.fuzzyTopMatches(query, 4, maxEdits));
+        }
+    }
+
+    /**
+     * Returns the smallest edit distance between query and a prefix of term.
+     */
+    private static int prefixDistance(String term, String query) {
+        int[][] d = new int[term.length() + 1][query.length() + 1];
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i <= term.length(); i++) {
+            for (int j = 0; j <= query.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int same = term.charAt(i - 1) == query.charAt(j - 1) ? 0 : 1;
+                    d[i][j] = Math.min(d[i - 1][j - 1] + same,
+                            Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+            best = Math.min(best, d[i][query.length()]);
+        }
+        return best;
+    }
+
+    @Test
+    public void foldCaseAndAccentsTest() throws IOException {
+        String[] terms = {"Shanghai, China", "S\u00e3o Paulo, Brazil", "Sao Paulo, Brazil",
+            "Stockholm, Sweden", "Z\u00fcrich, Switzerland", "zurich"};
+        double[] weights = {10, 5, 3, 1, 4, 6};
+        Autocomplete a = new Autocomplete(terms, weights, false,
+                Autocomplete.FOLD_CASE_AND_ACCENTS);
+        List<String> saoPaulo = Arrays.asList("S\u00e3o Paulo, Brazil", "Sao Paulo, Brazil");
+        assertEquals(saoPaulo, a.topMatches("sao p", 5));
+        assertEquals(saoPaulo, a.topMatches("S\u00c3O", 5));
+        assertEquals(Arrays.asList("Shanghai, China", "S\u00e3o Paulo, Brazil",
+                "Sao Paulo, Brazil"), a.topMatches("s", 3));
+        assertEquals("zurich", a.topMatch("ZU"));
+        assertEquals(Arrays.asList("zurich", "Z\u00fcrich, Switzerland"), a.topMatches("z", 5));
+        assertTrue(a.weightOf("Sao Paulo, Brazil") == 3);
+        // a spelling that is not in the dictionary has no weight, even if its key does
+        assertTrue(a.weightOf("sao paulo, brazil") == 0);
+        assertTrue(a.weightOf("ZURICH") == 0);
+        assertTrue(a.weightOf("sao") == 0);
+        assertTrue(new Autocomplete(terms, weights).topMatch("sao") == null);
+
+        // terms sharing a key are updated, removed and reinserted one by one
+        a.updateWeight("Sao Paulo, Brazil", 8);
+        assertEquals("Sao Paulo, Brazil", a.topMatch("SAO"));
+        assertTrue(a.remove("S\u00e3o Paulo, Brazil"));
+        assertFalse(a.remove("S\u00e3o Paulo, Brazil"));
+        assertEquals(Arrays.asList("Sao Paulo, Brazil"), a.topMatches("sao", 5));
+        assertTrue(a.insert("S\u00e3o Paulo, Brazil", 5));
+        assertFalse(a.insert("S\u00e3o Paulo, Brazil", 5));
+        assertEquals(Arrays.asList("Sao Paulo, Brazil", "S\u00e3o Paulo, Brazil"),
+                a.topMatches("sao", 5));
+        assertEquals(Arrays.asList("Sao Paulo, Brazil", "S\u00e3o Paulo, Brazil"),
+                a.fuzzyTopMatches("S\u00e3p", 2, 1));
+
+        AutocompleteSession session = new AutocompleteSession(a, 5);
+        session.setText("S\u00c3O");
+        assertEquals(2, session.numMatches());
+        TopMatchesCache cache = new TopMatchesCache(a, 10);
+        cache.topMatches("sao", 5);
+        assertEquals(Arrays.asList("Sao Paulo, Brazil", "S\u00e3o Paulo, Brazil"),
+                cache.topMatches("S\u00e3o", 5));
+        assertEquals(1, cache.getHits());
+
+        Path file = Files.createTempFile("autocomplete", ".snapshot");
+        try {
+            a.save(file);
+            Autocomplete opened = Autocomplete.open(file, true);
+            a.freeze();
+            for (String prefix : new String[]{"", "s", "SAO", "S\u00e3o p", "z\u00dc", "x"}) {
+                assertEquals(a.topMatches(prefix, 5), opened.topMatches(prefix, 5));
+                assertEquals(a.topMatch(prefix), opened.topMatch(prefix));
+            }
+            assertEquals("Sao Paulo, Brazil", opened.topMatch("sao"));
+            assertTrue(opened.weightOf("S\u00e3o Paulo, Brazil") == 5);
+            assertTrue(opened.weightOf("SAO PAULO, BRAZIL") == 0);
+            assertTrue(opened.weightOf("Sao Paulo, Brazil") == 8);
+            assertTrue(opened.weightOf("ZURICH") == 0);
+            assertTrue(a.weightOf("Sao Paulo, Brazil") == 8);
+            assertTrue(a.weightOf("sao paulo, brazil") == 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void infixTopMatchesTest() {
+        String[] cities = {"Buenos Aires, Argentina", "C\u00f3rdoba, Argentina",
+            "Rosario, Argentina", "Aire-sur-l'Adour, France"};
+        double[] weights = {13076300, 1267521, 1173533, 6267};
+        Autocomplete a = new Autocomplete(cities, weights, false,
+                Autocomplete.FOLD_CASE_AND_ACCENTS | Autocomplete.INFIX_SEARCH);
+        assertEquals(Arrays.asList(cities[0], cities[1], cities[2]),
+                a.infixTopMatches("argentina", 5));
+        assertEquals(Arrays.asList(cities[0], cities[3]), a.infixTopMatches("AIRE", 5));
+        assertEquals(Arrays.asList(cities[1]), a.infixTopMatches("cord", 5));
+        assertEquals(Arrays.asList(cities[0], cities[1]), a.infixTopMatches("", 2));
+        assertFalse(a.infixTopMatches("a, f", 0).iterator().hasNext());
+        assertFalse(a.infixTopMatches("zz", 5).iterator().hasNext());
+
+        a.insert("Mendoza, Argentina", 1300000);
+        assertEquals(Arrays.asList(cities[0], "Mendoza, Argentina"),
+                a.infixTopMatches("argentina", 2));
+        a.freeze();
+        assertEquals(Arrays.asList(cities[0], "Mendoza, Argentina"),
+                a.infixTopMatches("argentina", 2));
+        try {
+            new Autocomplete(cities, weights).infixTopMatches("aires", 5);
+            assertFalse(true);
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+
+        // compare with a scan of every term
+        Random random = new Random(21);
+        Map<String, Double> reference = new HashMap<>();
+        while (reference.size() < 3000) {
+            reference.put(randomTerm(random) + randomTerm(random) + randomTerm(random),
+                    random.nextDouble());
+        }
+        String[] terms = reference.keySet().toArray(new String[0]);
+        weights = new double[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            weights[i] = reference.get(terms[i]);
+        }
+        a = new Autocomplete(terms, weights, false, Autocomplete.INFIX_SEARCH);
+        for (int i = 0; i < 300; i++) {
+            String query = randomTerm(random);
+            int k = random.nextInt(12);
+            List<String> expected = new ArrayList<>();
+            for (String term : terms) {
+                if (term.contains(query)) {
+                    expected.add(term);
+                }
+            }
+            expected.sort((x, y) -> Double.compare(reference.get(y), reference.get(x)));
+            assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                    a.infixTopMatches(query, k));
+        }
+    }
+
+    @Test
+    public void tokenStartsTest() throws IOException {
+        String[] cities = {"New York, New York, United States", "Rio de Janeiro, Brazil",
+            "York, United Kingdom", "Newark, New Jersey, United States"};
+        double[] weights = {8107916, 6023699, 137505, 281402};
+        Autocomplete a = new Autocomplete(cities, weights, false, Autocomplete.TOKEN_STARTS);
+        assertEquals(Arrays.asList(cities[0], cities[2]), a.topMatches("York", 5));
+        assertEquals(Arrays.asList(cities[1]), a.topMatches("Jan", 5));
+        // matched at two words, returned once
+        assertEquals(Arrays.asList(cities[0], cities[3]), a.topMatches("New", 5));
+        assertEquals(Arrays.asList(cities[0], cities[1], cities[3], cities[2]),
+                a.topMatches("", 5));
+        assertEquals(cities[0], a.topMatch("United"));
+        assertEquals(cities[3], a.topMatch("New J"));
+        assertTrue(a.weightOf("York, United Kingdom") == 137505);
+        assertTrue(a.weightOf("United States") == 0);
+        assertTrue(new Autocomplete(cities, weights).topMatch("United") == null);
+
+        a.updateWeight("York, United Kingdom", 9000000);
+        assertEquals(Arrays.asList(cities[2], cities[0]), a.topMatches("Uni", 2));
+        assertTrue(a.remove("York, United Kingdom"));
+        assertEquals(Arrays.asList(cities[0], cities[3]), a.topMatches("Uni", 5));
+        assertTrue(a.remove(cities[0]));
+        assertEquals(Arrays.asList(cities[3]), a.topMatches("Uni", 5));
+        assertEquals(Arrays.asList(cities[3]), a.topMatches("Ne", 5));
+
+        // compare with a scan of every term while the dictionary changes
+        Random random = new Random(22);
+        Map<String, Double> reference = new HashMap<>();
+        a = new Autocomplete(new String[0], new double[0], false,
+                Autocomplete.TOKEN_STARTS | Autocomplete.FOLD_CASE_AND_ACCENTS);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                String term = randomTerm(random) + " " + randomTerm(random).toUpperCase()
+                        + (random.nextBoolean() ? "-" + randomTerm(random) : "");
+                if (reference.containsKey(term) && random.nextBoolean()) {
+                    assertTrue(a.remove(term));
+                    reference.remove(term);
+                } else if (reference.containsKey(term)) {
+                    a.updateWeight(term, random.nextDouble());
+                    reference.put(term, a.weightOf(term));
+                } else {
+                    assertTrue(a.insert(term, random.nextDouble()));
+                    reference.put(term, a.weightOf(term));
+                }
+            }
+            if (round == 10) {
+                a.cacheTopMatches(5, 2);
+            }
+            for (int i = 0; i < 20; i++) {
+                String prefix = randomTerm(random).substring(random.nextInt(2));
+                List<String> expected = new ArrayList<>();
+                for (String term : reference.keySet()) {
+                    String key = term.toLowerCase();
+                    if (key.startsWith(prefix) || key.contains(" " + prefix)
+                            || key.contains("-" + prefix)) {
+                        expected.add(term);
+                    }
+                }
+                expected.sort((x, y) -> Double.compare(reference.get(y), reference.get(x)));
+                int k = random.nextInt(8);
+                assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                        a.topMatches(prefix, k));
+            }
+        }
+
+        Path file = Files.createTempFile("autocomplete", ".snapshot");
+        try {
+            a.save(file);
+            Autocomplete opened = Autocomplete.open(file, true);
+            for (String prefix : new String[]{"", "a", "B", "ab", "c", "ca"}) {
+                assertEquals(a.topMatches(prefix, 6), opened.topMatches(prefix, 6));
+                assertEquals(a.topMatch(prefix), opened.topMatch(prefix));
+            }
+            for (String term : reference.keySet()) {
+                assertTrue(opened.weightOf(term) == reference.get(term));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void snapshotTest() throws IOException {
+        String[] words = {"Mumbai, India", "Mexico City, Distrito Federal, Mexico", "Manila, "
+                + "Philippines", "Moscow, Russia", "S\u00e3o Paulo, Brazil", "cat", "car"};
+        double[] weights = {1, 2, 3, 4, 5, 6, 7};
+
+        Autocomplete a = new Autocomplete(words, weights);
+        Path file = Files.createTempFile("autocomplete", ".snapshot");
+        try {
+            a.save(file);
+            Autocomplete opened = Autocomplete.open(file, true);
+
+            assertTrue(opened.isFrozen());
+            for (String prefix : new String[]{"", "M", "Mo", "S", "ca", "x"}) {
+                assertEquals(a.topMatches(prefix, 3), opened.topMatches(prefix, 3));
+                assertEquals(a.topMatch(prefix), opened.topMatch(prefix));
+            }
+            assertTrue(opened.weightOf("S\u00e3o Paulo, Brazil") == 5);
+
+            // saving a mapped snapshot over its own file keeps it whole
+            opened.save(file);
+            Autocomplete reopened = Autocomplete.open(file, true);
+            assertEquals(a.topMatches("M", 5), reopened.topMatches("M", 5));
+            assertEquals(a.topMatches("M", 5), opened.topMatches("M", 5));
+
+            // flip one byte of the header counts, flags and cache K, then
+            // of the payload; without the checksum, corrupt counts are still
+            // caught because the sections no longer add up
+            int[] offsets = {8, 12, 16, 20, 40, 44, 48, 52, 56, -1};
+            for (int offset : offsets) {
+                try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                    long at = offset >= 0 ? offset : raf.length() - 1;
+                    raf.seek(at);
+                    int b = raf.read();
+                    raf.seek(at);
+                    raf.write(b ^ 1);
+                }
+                for (boolean verify : new boolean[]{true, false}) {
+                    if (!verify && (offset < 8 || offset == 20 || offset == 56)) {
+                        continue;
+                    }
+                    try {
+                        Autocomplete.open(file, verify);
+                        fail(offset + " " + verify);
+                    } catch (IOException e) {
+                        assertTrue(true);
+                    }
+                }
+                a.save(file);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void frozenEdgesTest() throws IOException {
+        String[] words = {"mississippi", "missouri", "miss", "montana", "m", "Ohio"};
+        double[] weights = {5, 4, 1, 3, 2, 6};
+        Autocomplete a = new Autocomplete(words, weights);
+        Autocomplete frozen = new Autocomplete(words, weights);
+        frozen.freeze();
+        // root, m, miss, missi-ssippi, missouri, montana and ohio
+        assertEquals(7, frozen.getFrozen().size());
+
+        Path file = Files.createTempFile("autocomplete", ".snapshot");
+        try {
+            frozen.save(file);
+            Autocomplete opened = Autocomplete.open(file, true);
+            for (Autocomplete b : new Autocomplete[]{frozen, opened}) {
+                for (String prefix : new String[]{"", "m", "mi", "mis", "miss", "missi",
+                    "mississipp", "mississippix", "mo", "mon", "O", "Oh", "Ohx", "x"}) {
+                    assertEquals(a.topMatches(prefix, 4), b.topMatches(prefix, 4));
+                    assertEquals(a.topMatch(prefix), b.topMatch(prefix));
+                    assertTrue(a.weightOf(prefix) == b.weightOf(prefix));
+                }
+                assertEquals(a.topMatchesBatch(Arrays.asList("mis", "miss", "missis", "mo"), 2),
+                        b.topMatchesBatch(Arrays.asList("mis", "miss", "missis", "mo"), 2));
+                for (String typo : new String[]{"misisip", "montanna", "mssouri", "ohoi"}) {
+                    assertEquals(a.fuzzyTopMatches(typo, 3, 2), b.fuzzyTopMatches(typo, 3, 2));
+                }
+
+                AutocompleteSession session = new AutocompleteSession(b, 2);
+                session.setText("missis");
+                assertEquals(1, session.numMatches());
+                assertEquals("mississippi", session.getMatch(0));
+                session.backspace();
+                session.backspace();
+                assertEquals(2, session.numMatches());
+                assertEquals("missouri", session.getMatch(1));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void frozenTopMatchesCacheTest() throws IOException {
+        String[] words = {"cat", "car", "cab", "cars", "c", "Moscow, Russia", "Mo", "dog"};
+        double[] weights = {8, 9, 10, 11, 12, 4, 1, 3};
+        Autocomplete plain = new Autocomplete(words, weights);
+        Autocomplete a = new Autocomplete(words, weights);
+        a.cacheTopMatches(2, 2);
+        a.freeze();
+        assertEquals(2, a.getFrozen().getTopMatchesK());
+
+        Path file = Files.createTempFile("autocomplete", ".snapshot");
+        try {
+            a.save(file);
+            Autocomplete opened = Autocomplete.open(file, true);
+            assertEquals(2, opened.getFrozen().getTopMatchesK());
+            for (String prefix : new String[]{"", "c", "ca", "car", "M", "Mos", "d", "x"}) {
+                for (int k = 0; k <= 4; k++) {
+                    assertEquals(plain.topMatches(prefix, k), a.topMatches(prefix, k));
+                    assertEquals(plain.topMatches(prefix, k), opened.topMatches(prefix, k));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void loadTest() throws IOException {
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            Files.write(file, ("4\n      14608512\tShanghai, China\n"
+                    + "       1.5e3\tS\u00e3o Paulo, Brazil\r\n"
+                    + "   56271872.00\tthe\n 7\tShenzhen, China").getBytes(StandardCharsets.UTF_8));
+            DictionaryLoader loader = DictionaryLoader.read(file, false);
+            assertArrayEquals(new String[]{"Shanghai, China", "S\u00e3o Paulo, Brazil", "the",
+                "Shenzhen, China"}, loader.getTerms());
+            assertArrayEquals(new double[]{14608512, 1500, 56271872, 7}, loader.getWeights(), 0);
+
+            Autocomplete a = Autocomplete.load(file, true);
+            assertEquals("Shanghai, China", a.topMatch("S"));
+
+            Files.write(file, "3\n 1\tone\n 2\ttwo\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                DictionaryLoader.read(file, false);
+                assertFalse(true);
+            } catch (IOException e) {
+                assertTrue(true);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void parallelLoadTest() throws IOException {
+        // CRLF lines of different lengths and no final newline, split into
+        // chunks of a few lines so that most boundaries fall inside a line
+        int n = 200;
+        StringBuilder text = new StringBuilder(n + "\r\n");
+        for (int i = 0; i < n; i++) {
+            text.append("  ".substring(i % 3)).append(i * 37 % 1000)
+                    .append(i % 4 == 0 ? ".25" : "").append('\t')
+                    .append("S\u00e3o ").append("xxxxxxxxxx".substring(i % 11)).append(i);
+            if (i < n - 1) {
+                text.append("\r\n");
+            }
+        }
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+            DictionaryLoader sequential = DictionaryLoader.read(file, false);
+            assertEquals(n, sequential.getTerms().length);
+            assertEquals("S\u00e3o xxxxxxxxx199", sequential.getTerms()[n - 1]);
+            assertTrue(sequential.getWeights()[4] == 148.25);
+            for (int chunks : new int[]{2, 3, 7, 64}) {
+                DictionaryLoader parallel = DictionaryLoader.read(file, 50, chunks);
+                assertArrayEquals(sequential.getTerms(), parallel.getTerms());
+                assertArrayEquals(sequential.getWeights(), parallel.getWeights(), 0);
+            }
+
+            // a short file is still caught when its lines are spread over chunks
+            Files.write(file, text.toString().replaceFirst("^200", "201")
+                    .getBytes(StandardCharsets.UTF_8));
+            try {
+                DictionaryLoader.read(file, 50, 7);
+                assertFalse(true);
+            } catch (IOException e) {
+                assertTrue(true);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
 
     /**
      * Run the JUnit tests above.
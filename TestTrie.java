@@ -219,6 +219,221 @@ public class TestTrie {
         assertTrue(t.getLast("cia").getWeight() == 4);
     }
 
+    @Test
+    public void getLinkTest() {
+        Trie t = new Trie();
+        t.insert("cz", 1.0);
+        t.insert("ca", 2.0);
+        t.insert("cm", 3.0);
+
+        Trie.Node c = t.getRoot().getLink('c');
+        assertEquals(3, c.numLinks());
+        assertEquals('a', c.keyAt(0));
+        assertEquals('m', c.keyAt(1));
+        assertEquals('z', c.keyAt(2));
+        assertTrue(c.getLink('m').getWeight() == 3);
+        assertNull(c.getLink('b'));
+        assertNull(t.getLast("cb"));
+    }
+
+    @Test
+    public void heaviestTest() {
+        Trie t = new Trie();
+        t.insert("cat", 1.0);
+        t.insert("car", 2.0);
+        t.insert("cia", 4.0);
+        t.insert("cab", 3.0);
+
+        Trie.Node c = t.getRoot().getLink('c');
+        assertSame(c, t.getRoot().getHeaviest());
+        assertSame(c.getLink('i'), c.getHeaviest());
+        assertSame(t.getLast("cab"), t.getLast("ca").getHeaviest());
+        assertNull(t.getLast("cat").getHeaviest());
+    }
+
+    @Test
+    public void termIdTest() {
+        Trie t = new Trie();
+        t.insert("cat", 1.0);
+        t.insert("car", 2.0);
+        t.insert("ca");
+        t.insert("cat", 3.0);
+
+        assertEquals(2, t.numTerms());
+        assertEquals(0, t.getLast("cat").getTermId());
+        assertEquals(1, t.getLast("car").getTermId());
+        assertEquals(-1, t.getLast("ca").getTermId());
+        assertEquals("car", t.getTerm(1));
+        assertEquals("cat", t.getWord(t.getLast("cat")));
+        assertNull(t.getWord(t.getLast("ca")));
+    }
+
+    @Test
+    public void insertDropsTopMatchesTest() {
+        Trie t = new Trie();
+        t.insert("cat", 1.0);
+        t.insert("car", 2.0);
+        t.insert("dog", 3.0);
+        t.precomputeTopMatches(2, 10);
+
+        int[] top = t.getRoot().getTopMatches();
+        assertEquals("dog", t.getTerm(top[0]));
+        assertEquals("car", t.getTerm(top[1]));
+        assertEquals(2, t.getLast("ca").getTopMatches().length);
+
+        t.insert("cab", 4.0);
+        assertNull(t.getRoot().getTopMatches());
+        assertNull(t.getLast("ca").getTopMatches());
+        assertNotNull(t.getLast("do").getTopMatches());
+    }
+
+    @Test
+    public void updateWeightTest() {
+        Trie t = new Trie();
+        t.insert("cat", 1.0);
+        t.insert("car", 5.0);
+        t.insert("cars", 3.0);
+        t.insert("dog", 4.0);
+        t.precomputeTopMatches(2, 10);
+
+        t.updateWeight("car", 2.0);
+        assertTrue(t.getRoot().getMaxWeight() == 4.0);
+        assertTrue(t.getLast("ca").getMaxWeight() == 3.0);
+        assertTrue(t.getLast("car").getMaxWeight() == 3.0);
+        assertTrue(t.getRoot().getHeaviest() == t.getLast("d"));
+        assertTrue(t.getLast("ca").getHeaviest() == t.getLast("car"));
+        assertNull(t.getRoot().getTopMatches());
+        assertNull(t.getLast("car").getTopMatches());
+        assertNotNull(t.getLast("cat").getTopMatches());
+
+        t.incrementWeight("cat", 9.0);
+        assertTrue(t.getLast("cat").getWeight() == 10.0);
+        assertTrue(t.getRoot().getMaxWeight() == 10.0);
+        assertTrue(t.getLast("ca").getHeaviest() == t.getLast("cat"));
+
+        try {
+            t.updateWeight("ca", 1.0);
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        try {
+            t.incrementWeight("dog", -5.0);
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        assertTrue(t.getLast("dog").getWeight() == 4.0);
+    }
+
+    @Test
+    public void removeTest() {
+        Trie t = new Trie();
+        t.insert("car", 1.0);
+        t.insert("cart", 5.0);
+        t.insert("cat", 2.0);
+        t.insert("dog", 3.0);
+
+        assertTrue(t.remove("cart"));
+        assertFalse(t.remove("cart"));
+        assertFalse(t.remove("ca"));
+        assertNull(t.getLast("cart"));
+        assertEquals(0, t.getLast("car").numLinks());
+        assertTrue(t.getRoot().getMaxWeight() == 3.0);
+        assertTrue(t.getLast("c").getMaxWeight() == 2.0);
+        assertEquals(3, t.numTerms());
+
+        // "dog" took over the id of "cart"
+        assertEquals("dog", t.getWord(t.getLast("dog")));
+        assertEquals(1, t.getLast("dog").getTermId());
+
+        assertTrue(t.remove("dog"));
+        assertNull(t.getLast("d"));
+        assertEquals(1, t.getRoot().numLinks());
+        assertTrue(t.getRoot().getHeaviest() == t.getLast("c"));
+        assertTrue(t.remove("car"));
+        assertTrue(t.remove("cat"));
+        assertEquals(0, t.getRoot().numLinks());
+        assertEquals(0, t.numTerms());
+    }
+
+    @Test
+    public void tokenStartsTest() {
+        String[] terms = {"New York", "York", "new-york york", "Newark"};
+        double[] weights = {5.0, 2.0, 3.0, 4.0};
+        Trie t = new Trie(true, true);
+        t.insertAll(terms, weights, true);
+        Trie.Node york = t.getLast("york");
+        assertEquals("York", t.getWord(york));
+        assertEquals(2, york.numTokens());
+        assertEquals("New York", t.getTerm(york.tokenAt(0)));
+        assertEquals("new-york york", t.getTerm(york.tokenAt(1)));
+        assertEquals(1, t.getLast("york york").numTokens());
+        assertEquals(0, t.getLast("newark").numTokens());
+        assertTrue(york.getMaxWeight() == 5.0);
+        assertEquals(0, t.heaviestIdAt(york));
+        assertEquals(1, t.bestIdAt(york));
+
+        Trie next = t.withInserts(new String[]{"Old York"}, new double[]{6.0});
+        assertEquals(3, next.getLast("york").numTokens());
+        assertEquals(2, york.numTokens());
+        assertTrue(next.getLast("y").getMaxWeight() == 6.0);
+        assertTrue(t.getLast("y").getMaxWeight() == 5.0);
+
+        // t now shares nodes with next and may not be modified in place,
+        // so removals run on a separately built trie
+        Trie u = new Trie(true, true);
+        u.insertAll(terms, weights, true);
+        york = u.getLast("york");
+        assertTrue(u.remove("New York"));
+        assertEquals(1, york.numTokens());
+        assertTrue(york.getMaxWeight() == 3.0);
+        // "Newark" took over the id of "New York"
+        assertEquals(0, u.getLast("newark").getTermId());
+        assertEquals("new-york york", u.getTerm(york.tokenAt(0)));
+        assertTrue(u.remove("new-york york"));
+        assertNull(u.getLast("york y"));
+        assertEquals(0, york.numTokens());
+        assertTrue(u.remove("York"));
+        assertNull(u.getLast("y"));
+    }
+
+    @Test
+    public void foldKeysTest() {
+        String[] terms = {"Caf\u00e9", "cafe", "CAFE", "cab", "\u00c9t\u00e9"};
+        double[] weights = {2.0, 5.0, 1.0, 3.0, 4.0};
+        Trie t = new Trie(true);
+        t.insertAll(terms, weights, true);
+        assertEquals(5, t.numTerms());
+        assertEquals(2, t.getRoot().numLinks());
+        Trie.Node cafe = t.getLast("CAF\u00c9");
+        assertEquals("Caf\u00e9", t.getWord(cafe));
+        assertEquals(2, cafe.numPostings());
+        assertEquals("cafe", t.getTerm(cafe.postingAt(0)));
+        assertEquals("cafe", t.getTerm(t.bestIdAt(cafe)));
+        assertTrue(t.getLast("c").getMaxWeight() == 5.0);
+        assertTrue(t.getLast("ete").getIsWord());
+
+        Trie next = t.withInserts(new String[]{"Cafe"}, new double[]{6.0});
+        assertEquals(3, next.getLast("cafe").numPostings());
+        assertEquals(2, cafe.numPostings());
+        assertTrue(next.getRoot().getMaxWeight() == 6.0);
+        try {
+            next.withInserts(new String[]{"CAFE"}, new double[]{1.0});
+            assertFalse(true);
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+
+        assertTrue(t.remove("Caf\u00e9"));
+        assertEquals("cafe", t.getWord(cafe));
+        assertEquals(1, cafe.numPostings());
+        assertTrue(t.remove("cafe"));
+        assertTrue(t.remove("CAFE"));
+        assertFalse(cafe.getIsWord());
+        assertTrue(t.getRoot().getMaxWeight() == 4.0);
+    }
+
     @Test
     public void orderedWordsErrorsTest() {
         Trie t = new Trie();
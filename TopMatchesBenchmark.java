@@ -0,0 +1,50 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for topMatches at several k, through both the list and
+ * the buffer overloads. The buffer overload should show no allocation
+ * under the GC profiler.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TopMatchesBenchmark {
+
+    @Param({"baby.txt", "wiktionary.txt", "cities.txt"})
+    public String dictionary;
+
+    @Param({"short", "typed", "full"})
+    public String prefixLengths;
+
+    @Param({"1", "5", "10", "50"})
+    public int k;
+
+    private BenchmarkDictionary data;
+    private Autocomplete autocomplete;
+    private String[] out;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new BenchmarkDictionary(dictionary, prefixLengths);
+        autocomplete = new Autocomplete(data.getTerms(), data.getWeights());
+        out = new String[k];
+    }
+
+    @Benchmark
+    public Iterable<String> topMatches() {
+        return autocomplete.topMatches(data.next(), k);
+    }
+
+    @Benchmark
+    public int topMatchesBuffer() {
+        return autocomplete.topMatches(data.next(), k, out);
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.*;
+
+/**
+ * Bounded least-recently-used cache of topMatches results in front of an
+ * Autocomplete. Each prefix keeps the matches for the largest k asked so
+ * far, which also answers every smaller k. The cache listens for changes
+ * to the dictionary and drops the prefixes of every term that is
+ * inserted, removed or reweighted, since only those prefixes can have
+ * different matches. With FOLD_CASE_AND_ACCENTS, prefixes that fold to the
+ * same key share one entry. Safe for concurrent callers.
+ *
+ * @author
+ */
+public class TopMatchesCache {
+
+    private final Autocomplete autocomplete;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    // bumped by every invalidation, so a result computed across one is
+    // not stored
+    private long generation;
+
+    /**
+     * Creates a cache holding the matches of at most capacity prefixes.
+     *
+     * @param autocomplete Dictionary to cache results of.
+     * @param capacity     Maximum number of cached prefixes.
+     */
+    public TopMatchesCache(Autocomplete autocomplete, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.autocomplete = autocomplete;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+        autocomplete.addChangeListener(this::invalidate);
+    }
+
+    /**
+     * Returns the top k matching terms in descending order of weight, from
+     * the cache if possible. The list must not be modified.
+     */
+    public List<String> topMatches(String prefix, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        String key = autocomplete.keyOf(prefix);
+        long seen;
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null && (k <= cached.matches.size() || cached.complete)) {
+                hits++;
+                return cached.matches.subList(0, Math.min(k, cached.matches.size()));
+            }
+            misses++;
+            seen = generation;
+        }
+
+        ArrayList<String> matches = new ArrayList<>();
+        for (String term : autocomplete.topMatches(prefix, k)) {
+            matches.add(term);
+        }
+        // fewer than k matches means there are no more to find
+        Entry result = new Entry(Collections.unmodifiableList(matches), matches.size() < k);
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (generation == seen && (cached == null || result.complete
+                    || cached.matches.size() < matches.size())) {
+                entries.put(key, result);
+            }
+        }
+        return result.matches;
+    }
+
+    /**
+     * Drops every cached prefix of term and, if the Autocomplete indexes
+     * token starts, of its later words.
+     */
+    public synchronized void invalidate(String term) {
+        generation++;
+        String key = autocomplete.keyOf(term);
+        for (int i = 0; i <= key.length(); i++) {
+            entries.remove(key.substring(0, i));
+        }
+        // with TOKEN_STARTS, prefixes of the later words match term too
+        for (int from = 1; autocomplete.indexesTokens() && from < key.length(); from++) {
+            if (Trie.isTokenStart(term, from)) {
+                for (int i = from + 1; i <= key.length(); i++) {
+                    entries.remove(key.substring(from, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+
+        private final List<String> matches;
+        // whether matches holds every match of the prefix
+        private final boolean complete;
+
+        Entry(List<String> matches, boolean complete) {
+            this.matches = matches;
+            this.complete = complete;
+        }
+    }
+}
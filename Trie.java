@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Prefix-Trie. Supports linear time find() and insert().
@@ -9,8 +10,25 @@ import java.util.*;
  */
 public class Trie {
 
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_LINKS = new Trie.Node[0];
+
     private Node root;
-    private HashMap<Node, String> wordMap = new HashMap<>(800);
+    private int topMatchesK;
+    // term table; a word node stores its index into it
+    private String[] terms = new String[16];
+    // weight of each term, by id
+    private double[] termWeights = new double[16];
+    private int numTerms;
+    // scratch space of precomputeTopMatches: two buffers per depth
+    private int[][] mergeBuffers;
+    // slots of the term table written by withInserts so far, shared by
+    // every version that shares the table
+    private int[] termsWritten = new int[1];
+    // whether keys are folded with KeyFolding
+    private boolean foldKeys;
+    // whether every token start of a term is indexed as well
+    private boolean indexTokens;
     private TreeSet<Double> weightSet =
             new TreeSet<>((a, b) -> -1 * Double.compare(a, b));
 
@@ -22,17 +40,212 @@ public class Trie {
         root = new Node(isWord, weight);
     }
 
+    /**
+     * Creates an empty trie. With foldKeys set, every term is stored under
+     * its case- and accent-insensitive key from KeyFolding, and lookups
+     * fold their input the same way. Terms whose keys collide share a
+     * node, and the term table keeps each one as it was inserted.
+     */
+    public Trie(boolean foldKeys) {
+        this(foldKeys, false);
+    }
+
+    /**
+     * Creates an empty trie that folds keys as Trie(foldKeys) does. With
+     * indexTokens set, the rest of a term from each later token start is
+     * indexed too, so "New York" is also found under "york". Such an
+     * entry only refers to the term's id in the tokens of its node, and
+     * raises maxWeight along its path like the term itself.
+     */
+    public Trie(boolean foldKeys, boolean indexTokens) {
+        root = new Node();
+        this.foldKeys = foldKeys;
+        this.indexTokens = indexTokens;
+    }
+
+    /**
+     * Starts a new version of base that shares all of base's nodes except
+     * a copy of the root.
+     */
+    private Trie(Trie base) {
+        root = copyOf(base.root);
+        topMatchesK = base.topMatchesK;
+        terms = base.terms;
+        termWeights = base.termWeights;
+        termsWritten = base.termsWritten;
+        numTerms = base.numTerms;
+        foldKeys = base.foldKeys;
+        indexTokens = base.indexTokens;
+    }
+
     public Node getRoot() {
         return root;
     }
 
+    /**
+     * Returns the term ending at n, or null if n is not a weighted word.
+     */
     public String getWord(Node n) {
-        return wordMap.get(n);
+        return n.termId >= 0 ? terms[n.termId] : null;
+    }
+
+    /**
+     * Returns the term with the given id.
+     */
+    public String getTerm(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Returns the weight of the term with the given id.
+     */
+    public double getTermWeight(int id) {
+        return termWeights[id];
+    }
+
+    public int numTerms() {
+        return numTerms;
+    }
+
+    public boolean foldsKeys() {
+        return foldKeys;
+    }
+
+    public boolean indexesTokens() {
+        return indexTokens;
+    }
+
+    /**
+     * Returns whether a token other than the first starts at s.charAt(i):
+     * a letter or digit that follows any other char.
+     */
+    public static boolean isTokenStart(String s, int i) {
+        return i > 0 && !Character.isLetterOrDigit(s.charAt(i - 1))
+                && Character.isLetterOrDigit(s.charAt(i));
+    }
+
+    /**
+     * Returns the key char that c is stored under.
+     */
+    public char keyOf(char c) {
+        return foldKeys ? KeyFolding.fold(c) : c;
+    }
+
+    /**
+     * Returns the id of term if it ends at n, or -1.
+     */
+    public int idAt(Node n, String term) {
+        if (n.termId >= 0 && terms[n.termId].equals(term)) {
+            return n.termId;
+        }
+        if (n.postings != null) {
+            for (int id : n.postings) {
+                if (terms[id].equals(term)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of the heaviest term ending at n, or -1.
+     */
+    public int bestIdAt(Node n) {
+        if (n.postings != null && (n.termId < 0 || termWeights[n.postings[0]] > n.weight)) {
+            return n.postings[0];
+        }
+        return n.termId;
     }
 
+    /**
+     * Returns the id of the heaviest term ending at n or with a token
+     * ending at n, or -1.
+     */
+    public int heaviestIdAt(Node n) {
+        int id = bestIdAt(n);
+        if (n.tokens != null && (id < 0 || termWeights[n.tokens[0]] > termWeights[id])) {
+            return n.tokens[0];
+        }
+        return id;
+    }
+
+    /**
+     * Sizes the term table for the given number of terms up front.
+     */
+    public void setTermCapacity(int capacity) {
+        if (capacity > terms.length) {
+            terms = Arrays.copyOf(terms, capacity);
+            termWeights = Arrays.copyOf(termWeights, capacity);
+            termsWritten = new int[1];
+        }
+    }
+
+    /**
+     * Returns the K passed to the last precomputeTopMatches call, or 0 if
+     * no top matches are cached.
+     */
+    public int getTopMatchesK() {
+        return topMatchesK;
+    }
 
-    public void setWordMapCap(int capacity) {
-        wordMap = new HashMap<>(capacity);
+    /**
+     * Stores at every node up to maxDepth (the root has depth 0) the ids of
+     * the k heaviest words in its subtree, in descending order of weight.
+     * A cached array shorter than k holds every word of the subtree.
+     * Inserting a word drops the caches along its path, so those nodes
+     * fall back to searching.
+     *
+     * @param k        Number of words cached per node.
+     * @param maxDepth Deepest level that keeps its cache.
+     */
+    public void precomputeTopMatches(int k, int maxDepth) {
+        if (k <= 0 || maxDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        topMatchesK = k;
+        mergeBuffers = new int[16][];
+        root.precomputeTopMatches(k, 0, maxDepth);
+        mergeBuffers = null;
+    }
+
+    /**
+     * Returns scratch buffer i, of length k, of precomputeTopMatches.
+     */
+    private int[] mergeBuffer(int i, int k) {
+        if (i >= mergeBuffers.length) {
+            mergeBuffers = Arrays.copyOf(mergeBuffers, 2 * i);
+        }
+        if (mergeBuffers[i] == null) {
+            mergeBuffers[i] = new int[k];
+        }
+        return mergeBuffers[i];
+    }
+
+    /**
+     * Merges ids a[0 .. na - 1] and b[0 .. nb - 1], each heaviest first, into
+     * out, keeping the k heaviest and, when tokens are indexed, every id
+     * once. Ties keep the ids of a first. Returns the number of ids in out.
+     */
+    private int mergeIds(int[] a, int na, int[] b, int nb, int[] out, int k) {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (count < k && (i < na || j < nb)) {
+            int id = j == nb || i < na && Double.compare(termWeights[a[i]], termWeights[b[j]]) >= 0
+                    ? a[i++] : b[j++];
+            // a term found under several of its tokens repeats among the
+            // ids of its weight
+            boolean seen = false;
+            for (int m = count - 1; indexTokens && m >= 0 && !seen
+                    && termWeights[out[m]] == termWeights[id]; m--) {
+                seen = out[m] == id;
+            }
+            if (!seen) {
+                out[count++] = id;
+            }
+        }
+        return count;
     }
 
 
@@ -41,24 +254,135 @@ public class Trie {
         private boolean isWord;
         private double weight;
         private double maxWeight;
-        private HashMap<Character, Node> links;
+        // children are kept in two parallel arrays sorted by key, so a
+        // lookup is a binary search over unboxed chars. Leaves share the
+        // empty arrays and allocate nothing.
+        private char[] keys;
+        private Node[] links;
+        // id of the term ending here, or -1
+        private int termId;
+        // ids of further terms whose key ends here, heaviest first, or
+        // null; only a node holding a term id can have them
+        private int[] postings;
+        // ids of terms with a later token whose key ends here, heaviest
+        // first, or null
+        private int[] tokens;
+        // ids of the heaviest words below this node, or null if not cached
+        private int[] topMatches;
+        // child with the largest maxWeight, or null for a leaf
+        private Node heaviest;
 
         public Node() {
             isWord = false;
             weight = 0.0;
             maxWeight = 0.0;
-            links = new HashMap<>();
+            keys = NO_KEYS;
+            links = NO_LINKS;
+            termId = -1;
         }
 
         public Node(boolean isWord, double weight) {
             this.isWord = isWord;
             this.weight = weight;
             this.maxWeight = 0.0;
-            this.links = new HashMap<>();
+            this.keys = NO_KEYS;
+            this.links = NO_LINKS;
+            this.termId = -1;
         }
 
+        /**
+         * Returns a copy of this node's children keyed by character.
+         * Allocates a new map on every call, so the search code should
+         * use getLink(), numLinks(), keyAt() and linkAt() instead.
+         */
         public HashMap<Character, Node> getLinks() {
-            return links;
+            HashMap<Character, Node> result = new HashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                result.put(keys[i], links[i]);
+            }
+            return result;
+        }
+
+        /**
+         * Returns the child reached by c, or null if there is none.
+         */
+        public Node getLink(char c) {
+            int i = indexOf(c);
+            return i >= 0 ? links[i] : null;
+        }
+
+        public int numLinks() {
+            return keys.length;
+        }
+
+        public char keyAt(int i) {
+            return keys[i];
+        }
+
+        public Node linkAt(int i) {
+            return links[i];
+        }
+
+        private int indexOf(char c) {
+            int lo = 0;
+            int hi = keys.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < c) {
+                    lo = mid + 1;
+                } else if (keys[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        /**
+         * Returns the child reached by c, creating it in sorted position if
+         * it does not exist yet.
+         */
+        private Node linkOrCreate(char c, double maxWeight) {
+            int i = indexOf(c);
+            if (i >= 0) {
+                return links[i];
+            }
+            i = -(i + 1);
+            Node child = new Node();
+            child.maxWeight = maxWeight;
+
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newLinks = new Trie.Node[links.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(links, 0, newLinks, 0, i);
+            newKeys[i] = c;
+            newLinks[i] = child;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(links, i, newLinks, i + 1, links.length - i);
+            keys = newKeys;
+            links = newLinks;
+            return child;
+        }
+
+        /**
+         * Removes the child reached by c, which must exist.
+         */
+        private void removeLink(char c) {
+            int i = indexOf(c);
+            if (keys.length == 1) {
+                keys = NO_KEYS;
+                links = NO_LINKS;
+                return;
+            }
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newLinks = new Trie.Node[links.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(links, 0, newLinks, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            System.arraycopy(links, i + 1, newLinks, i, links.length - i - 1);
+            keys = newKeys;
+            links = newLinks;
         }
 
         public void setIsWord(boolean isWord) {
@@ -85,15 +409,96 @@ public class Trie {
             return maxWeight;
         }
 
+        /**
+         * Returns the child with the largest maxWeight, or null if this node
+         * has no children.
+         */
+        public Node getHeaviest() {
+            return heaviest;
+        }
+
+        private void updateHeaviest(Node child) {
+            if (heaviest == null || child.maxWeight > heaviest.maxWeight) {
+                heaviest = child;
+            }
+        }
+
+        /**
+         * Returns the id of the term ending at this node, or -1.
+         */
+        public int getTermId() {
+            return termId;
+        }
+
+        public int numPostings() {
+            return postings == null ? 0 : postings.length;
+        }
+
+        public int numTokens() {
+            return tokens == null ? 0 : tokens.length;
+        }
+
+        /**
+         * Returns the id of the i-th heaviest term with a later token whose
+         * key ends at this node.
+         */
+        public int tokenAt(int i) {
+            return tokens[i];
+        }
+
+        /**
+         * Returns the id of the i-th heaviest further term whose key ends
+         * at this node.
+         */
+        public int postingAt(int i) {
+            return postings[i];
+        }
+
+        /**
+         * Returns the ids of the cached heaviest words in this subtree,
+         * heaviest first, or null if the node has no valid cache.
+         */
+        public int[] getTopMatches() {
+            return topMatches;
+        }
+
+        /**
+         * Merges the cached ids of every node below into mergeBuffer(2 *
+         * depth), so only the caches that are kept get allocated, and
+         * returns their number.
+         */
+        private int precomputeTopMatches(int k, int depth, int maxDepth) {
+            int[] merged = mergeBuffer(2 * depth, k);
+            int[] spare = mergeBuffer(2 * depth + 1, k);
+            int count = 0;
+            if (termId >= 0) {
+                merged[count++] = termId;
+            }
+            if (postings != null) {
+                count = mergeIds(merged, count, postings, postings.length, spare, k);
+                System.arraycopy(spare, 0, merged, 0, count);
+            }
+            if (tokens != null) {
+                count = mergeIds(merged, count, tokens, tokens.length, spare, k);
+                System.arraycopy(spare, 0, merged, 0, count);
+            }
+            for (Node child : links) {
+                int childCount = child.precomputeTopMatches(k, depth + 1, maxDepth);
+                count = mergeIds(merged, count, mergeBuffer(2 * depth + 2, k), childCount,
+                        spare, k);
+                System.arraycopy(spare, 0, merged, 0, count);
+            }
+            topMatches = depth <= maxDepth ? Arrays.copyOf(merged, count) : null;
+            return count;
+        }
+
         public String print() {
             Node currNode = this;
             String result = "";
-            if (!currNode.links.isEmpty()) {
-                for (Character c : currNode.links.keySet()) {
-                    result += (c);
-                    result += currNode.links.get(c).print();
-                    result += "\n";
-                }
+            for (int i = 0; i < currNode.keys.length; i++) {
+                result += currNode.keys[i];
+                result += currNode.links[i].print();
+                result += "\n";
             }
 
             return result;
@@ -101,12 +506,8 @@ public class Trie {
 
         public Node getLast(String term) {
             Trie.Node currNode = root;
-            for (int i = 0; i < term.length(); i++) {
-                Character currChar = term.charAt(i);
-                if (!currNode.getLinks().containsKey(currChar)) {
-                    return null;
-                }
-                currNode = currNode.links.get(currChar);
+            for (int i = 0; i < term.length() && currNode != null; i++) {
+                currNode = currNode.getLink(keyOf(term.charAt(i)));
             }
             return currNode;
         }
@@ -117,10 +518,8 @@ public class Trie {
             }
             Node currNode = this;
             for (int i = 0; i < s.length(); i++) {
-                Character currChar = s.charAt(i);
-                if (currNode.links.containsKey(currChar)) {
-                    currNode = currNode.links.get(currChar);
-                } else {
+                currNode = currNode.getLink(keyOf(s.charAt(i)));
+                if (currNode == null) {
                     return false;
                 }
             }
@@ -136,26 +535,26 @@ public class Trie {
         public ArrayList<String> orderedWords(char[] order, String prefix,
                                               ArrayList<String> result) {
             Node curr = this;
-            if (!curr.links.isEmpty()) {
+            if (curr.links.length != 0) {
 
                 ArrayList<Character> orderedLinks = new ArrayList<>();
                 for (int i = 0; i < order.length; i++) {
-                    if (curr.links.containsKey(order[i])) {
+                    if (curr.indexOf(order[i]) >= 0) {
                         orderedLinks.add(order[i]);
                     }
                 }
 
                 for (Character c : orderedLinks) {
-                    Node currChild = curr.links.get(c);
+                    Node currChild = curr.getLink(c);
                     prefix += c;
 
-                    if (!currChild.links.isEmpty()) {
+                    if (currChild.links.length != 0) {
                         if (currChild.isWord) {
                             result.add(prefix);
                         }
 
                         currChild.orderedWords(order, prefix, result);
-                        if (curr.links.size() > 1) {
+                        if (curr.links.length > 1) {
                             prefix = prefix.substring(0, prefix.length() - 1);
                         }
 
@@ -180,7 +579,7 @@ public class Trie {
 
         char[] order = alphabetOrder.toCharArray();
 
-        if (order.length == 0 || root.getLinks().isEmpty()
+        if (order.length == 0 || root.numLinks() == 0
                 || orderSet.size() != alphabetOrder.length()) {
             throw new IllegalArgumentException();
         }
@@ -207,41 +606,628 @@ public class Trie {
         }
         Node currNode = root;
 
+        root.topMatches = null;
+
         for (int i = 0; i < s.length(); i++) {
-            Character currChar = s.charAt(i);
-            if (!currNode.links.containsKey(currChar)) {
-                currNode.links.put(currChar, new Node());
-            }
-            currNode = currNode.links.get(currChar);
+            Node parent = currNode;
+            currNode = currNode.linkOrCreate(keyOf(s.charAt(i)), 0.0);
+            currNode.topMatches = null;
+            parent.updateHeaviest(currNode);
         }
         currNode.isWord = true;
     }
 
-    public void insert(String s, double weight) {
+    /**
+     * Inserts s with the given weight. A term that is already in the trie
+     * is left as it is.
+     *
+     * @return true if s was added, false if it was already present.
+     */
+    public boolean insert(String s, double weight) {
+        return insert(s, weight, null);
+    }
+
+    /**
+     * Like insert(s, weight). With pending set, token entries are
+     * collected there for addPending instead of added one by one.
+     */
+    private boolean insert(String s, double weight, Map<Node, List<Integer>> pending) {
         if (s == null || s.isEmpty()) {
             throw new IllegalArgumentException("Empty string.");
         }
-        Node currNode = root;
+        Node existing = getLast(s);
+        if (existing != null && idAt(existing, s) >= 0) {
+            return false;
+        }
+        if (numTerms == terms.length) {
+            setTermCapacity(2 * numTerms + 1);
+        }
+        terms[numTerms] = s;
+        termWeights[numTerms] = weight;
+        insert(root, s, 0, weight, numTerms);
+        for (int i = 1; indexTokens && i < s.length(); i++) {
+            if (isTokenStart(s, i)) {
+                addToken(extend(root, s, i, weight), numTerms, pending);
+            }
+        }
+        numTerms++;
+        return true;
+    }
 
-        for (int i = 0; i < s.length(); i++) {
-            Character currChar = s.charAt(i);
-            if (!currNode.links.containsKey(currChar)) {
-                Node newNode = new Node();
-                newNode.maxWeight = weight;
-                currNode.links.put(currChar, newNode);
+    private void addToken(Node n, int id, Map<Node, List<Integer>> pending) {
+        if (pending == null) {
+            n.tokens = withId(n.tokens, id);
+        } else {
+            pending.computeIfAbsent(n, x -> new ArrayList<>()).add(id);
+        }
+    }
+
+    /**
+     * Adds the collected token entries, sorting each node's tokens once.
+     * Adding them one by one would copy the tokens of nodes such as the
+     * one of a common country name over and over.
+     */
+    private void addPending(Map<Node, List<Integer>> pending) {
+        for (Map.Entry<Node, List<Integer>> e : pending.entrySet()) {
+            Node n = e.getKey();
+            List<Integer> ids = e.getValue();
+            for (int i = 0; i < n.numTokens(); i++) {
+                ids.add(n.tokens[i]);
+            }
+            ids.sort((a, b) -> -1 * Double.compare(termWeights[a], termWeights[b]));
+            n.tokens = new int[ids.size()];
+            for (int i = 0; i < n.tokens.length; i++) {
+                n.tokens[i] = ids.get(i);
             }
-            currNode = currNode.links.get(currChar);
+        }
+    }
+
+    /**
+     * Adds s.substring(from) below start, raising maxWeight on the way and
+     * marking the last node as term id, or adding id to its postings if
+     * another term with the same key is already there.
+     *
+     * @return false if that node already held s.
+     */
+    private boolean insert(Node start, String s, int from, double weight, int id) {
+        Node currNode = extend(start, s, from, weight);
+        if (idAt(currNode, s) >= 0) {
+            return false;
+        }
+        addTerm(currNode, id);
+        return true;
+    }
+
+    /**
+     * Adds s.substring(from) below start, raising maxWeight on the way, and
+     * returns the last node.
+     */
+    private Node extend(Node start, String s, int from, double weight) {
+        Node currNode = start;
+        currNode.topMatches = null;
+        if (currNode.maxWeight < weight) {
+            currNode.maxWeight = weight;
+        }
+
+        for (int i = from; i < s.length(); i++) {
+            Node parent = currNode;
+            currNode = currNode.linkOrCreate(keyOf(s.charAt(i)), weight);
+            currNode.topMatches = null;
 
             if (currNode.maxWeight < weight) {
                 currNode.maxWeight = weight;
             }
+            parent.updateHeaviest(currNode);
         }
-        currNode.isWord = true;
-        currNode.weight = weight;
-        if (root.maxWeight < weight) {
-            root.maxWeight = weight;
+        return currNode;
+    }
+
+    /**
+     * Makes id the term of n, or one of its postings if n already has one.
+     * Postings are replaced rather than changed in place, since withInserts
+     * versions may share them.
+     */
+    private void addTerm(Node n, int id) {
+        if (n.termId < 0) {
+            n.isWord = true;
+            n.weight = termWeights[id];
+            n.termId = id;
+            return;
         }
-        wordMap.put(currNode, s);
+        n.postings = withId(n.postings, id);
     }
 
+    /**
+     * Returns a copy of ids, which is heaviest first or null, with id
+     * added in order of weight.
+     */
+    private int[] withId(int[] ids, int id) {
+        int[] old = ids == null ? new int[0] : ids;
+        int i = 0;
+        while (i < old.length && termWeights[old[i]] >= termWeights[id]) {
+            i++;
+        }
+        int[] result = new int[old.length + 1];
+        System.arraycopy(old, 0, result, 0, i);
+        result[i] = id;
+        System.arraycopy(old, i, result, i + 1, old.length - i);
+        return result;
+    }
+
+    /**
+     * Returns a copy of ids without id, or null if nothing is left.
+     */
+    private static int[] withoutId(int[] ids, int id) {
+        if (ids.length == 1) {
+            return null;
+        }
+        int[] result = new int[ids.length - 1];
+        int j = 0;
+        for (int other : ids) {
+            if (other != id) {
+                result[j++] = other;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of ids with id from renamed to to.
+     */
+    private static int[] renamed(int[] ids, int from, int to) {
+        int[] result = ids.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == from) {
+                result[i] = to;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new version of this trie that also holds the given terms,
+     * leaving this one unchanged. Only the nodes on the paths of the new
+     * terms are copied; every other node, and the term table up to its
+     * capacity, is shared. Since versions share nodes, neither may be
+     * modified in place afterwards, only extended with withInserts; a
+     * version extended more than once gets a copy of the term table for
+     * every extension after the first.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length, a
+     *         term is empty or already present, or a weight is negative.
+     */
+    public Trie withInserts(String[] newTerms, double[] weights) {
+        if (newTerms.length != weights.length) {
+            throw new IllegalArgumentException();
+        }
+        Trie next = new Trie(this);
+        // nodes that belong to the new version only and may be changed in place
+        Set<Node> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+        owned.add(next.root);
+
+        for (int i = 0; i < newTerms.length; i++) {
+            String s = newTerms[i];
+            if (s == null || s.isEmpty() || weights[i] < 0) {
+                throw new IllegalArgumentException();
+            }
+            Node existing = next.getLast(s);
+            if (existing != null && next.idAt(existing, s) >= 0) {
+                throw new IllegalArgumentException("Duplicate term " + s);
+            }
+
+            Node currNode = next.extendOwned(owned, s, 0, weights[i]);
+
+            next.claimTermSlot();
+            next.terms[next.numTerms] = s;
+            next.termWeights[next.numTerms] = weights[i];
+            next.addTerm(currNode, next.numTerms);
+            for (int j = 1; indexTokens && j < s.length(); j++) {
+                if (isTokenStart(s, j)) {
+                    Node n = next.extendOwned(owned, s, j, weights[i]);
+                    n.tokens = next.withId(n.tokens, next.numTerms);
+                }
+            }
+            next.numTerms++;
+        }
+        return next;
+    }
+
+    /**
+     * Makes slot numTerms of the term table writable by this version. Older
+     * versions never read past their own numTerms, so the slot is free
+     * unless another version forked from the same base already wrote it;
+     * the table is copied then, and when it runs out of room.
+     */
+    private void claimTermSlot() {
+        synchronized (termsWritten) {
+            if (numTerms < terms.length && termsWritten[0] <= numTerms) {
+                termsWritten[0] = numTerms + 1;
+                return;
+            }
+        }
+        terms = Arrays.copyOf(terms, 2 * numTerms + 1);
+        termWeights = Arrays.copyOf(termWeights, 2 * numTerms + 1);
+        termsWritten = new int[]{numTerms + 1};
+    }
+
+    /**
+     * Like extend(root, s, from, weight), but copies every node on the
+     * way that is not in owned, the nodes of this version only.
+     */
+    private Node extendOwned(Set<Node> owned, String s, int from, double weight) {
+        Node currNode = root;
+        currNode.topMatches = null;
+        if (currNode.maxWeight < weight) {
+            currNode.maxWeight = weight;
+        }
+        for (int j = from; j < s.length(); j++) {
+            Node parent = currNode;
+            char c = keyOf(s.charAt(j));
+            int index = parent.indexOf(c);
+            if (index < 0) {
+                currNode = parent.linkOrCreate(c, weight);
+                owned.add(currNode);
+            } else {
+                currNode = parent.links[index];
+                if (!owned.contains(currNode)) {
+                    Node copy = copyOf(currNode);
+                    owned.add(copy);
+                    parent.links[index] = copy;
+                    if (parent.heaviest == currNode) {
+                        parent.heaviest = copy;
+                    }
+                    currNode = copy;
+                }
+            }
+            currNode.topMatches = null;
+            if (currNode.maxWeight < weight) {
+                currNode.maxWeight = weight;
+            }
+            parent.updateHeaviest(currNode);
+        }
+        return currNode;
+    }
+
+    /**
+     * Returns a copy of n owned by this trie, sharing n's children.
+     */
+    private Node copyOf(Node n) {
+        Node copy = new Node(n.isWord, n.weight);
+        copy.maxWeight = n.maxWeight;
+        copy.keys = n.keys;
+        copy.links = n.links.clone();
+        copy.termId = n.termId;
+        copy.postings = n.postings;
+        copy.tokens = n.tokens;
+        copy.topMatches = n.topMatches;
+        copy.heaviest = n.heaviest;
+        return copy;
+    }
+
+    /**
+     * Inserts every term with the weight at the same index. With parallel
+     * set, terms and their indexed token starts are split into one group
+     * per leading character and each group is built into its own subtree
+     * of the root on the common ForkJoinPool.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length, a
+     *         term is empty or a term occurs twice. The trie is left
+     *         partially built in that case.
+     */
+    public void insertAll(String[] newTerms, double[] weights, boolean parallel) {
+        if (newTerms.length != weights.length) {
+            throw new IllegalArgumentException();
+        }
+        if (!parallel) {
+            setTermCapacity(numTerms + newTerms.length);
+            Map<Node, List<Integer>> pending = new HashMap<>();
+            for (int i = 0; i < newTerms.length; i++) {
+                if (!insert(newTerms[i], weights[i], pending)) {
+                    throw new IllegalArgumentException("Duplicate term " + newTerms[i]);
+                }
+            }
+            addPending(pending);
+            return;
+        }
+
+        int base = numTerms;
+        setTermCapacity(base + newTerms.length);
+        for (int i = 0; i < newTerms.length; i++) {
+            if (newTerms[i] == null || newTerms[i].isEmpty()) {
+                throw new IllegalArgumentException("Empty string.");
+            }
+            terms[base + i] = newTerms[i];
+            termWeights[base + i] = weights[i];
+        }
+
+        // every term, and every token start if those are indexed, as term
+        // index and start position
+        int numEntries = newTerms.length;
+        if (indexTokens) {
+            for (String t : newTerms) {
+                for (int j = 1; j < t.length(); j++) {
+                    numEntries += isTokenStart(t, j) ? 1 : 0;
+                }
+            }
+        }
+        int[] entryTerms = new int[numEntries];
+        int[] entryFroms = new int[numEntries];
+        for (int i = 0, e = newTerms.length; i < newTerms.length; i++) {
+            entryTerms[i] = i;
+            for (int j = 1; indexTokens && j < newTerms[i].length(); j++) {
+                if (isTokenStart(newTerms[i], j)) {
+                    entryTerms[e] = i;
+                    entryFroms[e++] = j;
+                }
+            }
+        }
+
+        // counting sort of the entries by leading character
+        int[] start = new int[Character.MAX_VALUE + 2];
+        for (int e = 0; e < numEntries; e++) {
+            start[keyOf(newTerms[entryTerms[e]].charAt(entryFroms[e])) + 1]++;
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] next = Arrays.copyOf(start, start.length);
+        int[] byChar = new int[numEntries];
+        for (int e = 0; e < numEntries; e++) {
+            byChar[next[keyOf(newTerms[entryTerms[e]].charAt(entryFroms[e]))]++] = e;
+        }
+
+        // the subtrees under the root are disjoint, so each group gets its own task
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            int from = start[c];
+            int to = start[c + 1];
+            if (from == to) {
+                continue;
+            }
+            Node child = root.linkOrCreate((char) c, 0.0);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                Map<Node, List<Integer>> pending = new HashMap<>();
+                for (int j = from; j < to; j++) {
+                    int i = entryTerms[byChar[j]];
+                    int entryFrom = entryFroms[byChar[j]];
+                    if (entryFrom > 0) {
+                        addToken(extend(child, newTerms[i], entryFrom + 1, weights[i]),
+                                base + i, pending);
+                    } else if (!insert(child, newTerms[i], 1, weights[i], base + i)) {
+                        throw new IllegalArgumentException("Duplicate term " + newTerms[i]);
+                    }
+                }
+                addPending(pending);
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        root.topMatches = null;
+        for (int i = 0; i < root.numLinks(); i++) {
+            Node child = root.linkAt(i);
+            if (root.maxWeight < child.maxWeight) {
+                root.maxWeight = child.maxWeight;
+            }
+            root.updateHeaviest(child);
+        }
+        numTerms = base + newTerms.length;
+    }
+
+    /**
+     * Sets the weight of a term already in the trie. maxWeight is
+     * recomputed from the children only along the term's path, so lowering
+     * a weight keeps every maxWeight exact, and cached top matches on the
+     * path are dropped.
+     *
+     * @throws IllegalArgumentException if term is not in the trie or
+     *         weight is negative.
+     */
+    public void updateWeight(String term, double weight) {
+        if (!(weight >= 0)) {
+            throw new IllegalArgumentException("Negative weight.");
+        }
+        Node[] path = pathTo(term);
+        setWeight(path[term.length()], term, weight);
+        repair(path, term.length());
+        reorderTokens(term, idAt(path[term.length()], term));
+    }
+
+    /**
+     * Adds delta to the weight of a term already in the trie.
+     *
+     * @throws IllegalArgumentException if term is not in the trie or its
+     *         weight would become negative.
+     */
+    public void incrementWeight(String term, double delta) {
+        Node[] path = pathTo(term);
+        double weight = termWeights[idAt(path[term.length()], term)] + delta;
+        if (!(weight >= 0)) {
+            throw new IllegalArgumentException("Negative weight.");
+        }
+        setWeight(path[term.length()], term, weight);
+        repair(path, term.length());
+        reorderTokens(term, idAt(path[term.length()], term));
+    }
+
+    /**
+     * Moves id, the id of term, to its new place in the tokens of every
+     * token start of term and repairs their paths.
+     */
+    private void reorderTokens(String term, int id) {
+        for (int i = 1; indexTokens && i < term.length(); i++) {
+            if (isTokenStart(term, i)) {
+                Node[] path = walk(term, i);
+                Node n = path[path.length - 1];
+                n.tokens = withId(withoutId(n.tokens, id), id);
+                repair(path, path.length - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes from the root down along s.substring(from), or
+     * null if there is no such path.
+     */
+    private Node[] walk(String s, int from) {
+        Node[] path = new Trie.Node[s.length() - from + 1];
+        path[0] = root;
+        for (int i = 1; i < path.length; i++) {
+            path[i] = path[i - 1].getLink(keyOf(s.charAt(from + i - 1)));
+            if (path[i] == null) {
+                return null;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Removes the nodes at the end of path, the path of s.substring(from),
+     * that have no terms, tokens or children left, and repairs the rest.
+     */
+    private void prune(Node[] path, String s, int from) {
+        int depth = path.length - 1;
+        while (depth > 0 && !path[depth].isWord && path[depth].tokens == null
+                && path[depth].links.length == 0) {
+            path[depth - 1].removeLink(keyOf(s.charAt(from + depth - 1)));
+            depth--;
+        }
+        repair(path, depth);
+    }
+
+    /**
+     * Sets the weight of term, which ends at n, keeping n's postings in
+     * order.
+     */
+    private void setWeight(Node n, String term, double weight) {
+        int id = idAt(n, term);
+        termWeights[id] = weight;
+        if (id == n.termId) {
+            n.weight = weight;
+        } else {
+            removePosting(n, id);
+            addTerm(n, id);
+        }
+    }
+
+    private void removePosting(Node n, int id) {
+        n.postings = withoutId(n.postings, id);
+    }
+
+    /**
+     * Removes a weighted term and its token entries. Nodes left with no
+     * word, tokens or children are pruned, and maxWeight is recomputed up
+     * to the root. To keep term ids dense, the term with the last id takes
+     * over the removed id.
+     *
+     * @return true if term was removed, false if it was not in the trie.
+     */
+    public boolean remove(String term) {
+        if (term == null || term.isEmpty()) {
+            throw new IllegalArgumentException("Empty string.");
+        }
+        Node[] path = walk(term, 0);
+        if (path == null) {
+            return false;
+        }
+        Node n = path[term.length()];
+        int id = idAt(n, term);
+        if (id < 0) {
+            return false;
+        }
+
+        if (id != n.termId) {
+            removePosting(n, id);
+        } else if (n.postings != null) {
+            // the heaviest posting takes over the node
+            n.termId = n.postings[0];
+            n.weight = termWeights[n.termId];
+            removePosting(n, n.termId);
+        } else {
+            n.isWord = false;
+            n.weight = 0.0;
+            n.termId = -1;
+        }
+        prune(path, term, 0);
+        for (int i = 1; indexTokens && i < term.length(); i++) {
+            if (isTokenStart(term, i)) {
+                Node[] tokenPath = walk(term, i);
+                Node t = tokenPath[tokenPath.length - 1];
+                t.tokens = withoutId(t.tokens, id);
+                prune(tokenPath, term, i);
+            }
+        }
+
+        int last = numTerms - 1;
+        if (id != last) {
+            // cached top matches above the moved term still hold its old id
+            String moved = terms[last];
+            Node m = root;
+            m.topMatches = null;
+            for (int i = 0; i < moved.length(); i++) {
+                m = m.getLink(keyOf(moved.charAt(i)));
+                m.topMatches = null;
+            }
+            if (m.termId == last) {
+                m.termId = id;
+            } else {
+                m.postings = renamed(m.postings, last, id);
+            }
+            for (int i = 1; indexTokens && i < moved.length(); i++) {
+                if (isTokenStart(moved, i)) {
+                    Node[] tokenPath = walk(moved, i);
+                    for (Node t : tokenPath) {
+                        t.topMatches = null;
+                    }
+                    Node t = tokenPath[tokenPath.length - 1];
+                    t.tokens = renamed(t.tokens, last, id);
+                }
+            }
+            terms[id] = moved;
+            termWeights[id] = termWeights[last];
+        }
+        terms[last] = null;
+        numTerms--;
+        return true;
+    }
+
+    /**
+     * Returns the nodes from the root down to the node of term.
+     *
+     * @throws IllegalArgumentException if term is not a weighted word.
+     */
+    private Node[] pathTo(String term) {
+        if (term == null || term.isEmpty()) {
+            throw new IllegalArgumentException("Empty string.");
+        }
+        Node[] path = walk(term, 0);
+        if (path == null || idAt(path[term.length()], term) < 0) {
+            throw new IllegalArgumentException("No such term " + term);
+        }
+        return path;
+    }
+
+    /**
+     * Recomputes maxWeight and heaviest of path[depth] up to the root and
+     * drops their cached top matches.
+     */
+    private void repair(Node[] path, int depth) {
+        for (int i = depth; i >= 0; i--) {
+            Node n = path[i];
+            n.topMatches = null;
+            n.maxWeight = n.isWord ? n.weight : 0.0;
+            if (n.postings != null && n.maxWeight < termWeights[n.postings[0]]) {
+                n.maxWeight = termWeights[n.postings[0]];
+            }
+            if (n.tokens != null && n.maxWeight < termWeights[n.tokens[0]]) {
+                n.maxWeight = termWeights[n.tokens[0]];
+            }
+            n.heaviest = null;
+            for (Node child : n.links) {
+                if (n.maxWeight < child.maxWeight) {
+                    n.maxWeight = child.maxWeight;
+                }
+                n.updateHeaviest(child);
+            }
+        }
+    }
 }
@@ -0,0 +1,55 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the Trie operations used outside of Autocomplete:
+ * find for prefixes and whole words, and orderedWords over the whole
+ * dictionary as AlphabetSort uses it.
+ *
+ * @author
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TrieBenchmark {
+
+    @Param({"baby.txt", "wiktionary.txt", "cities.txt"})
+    public String dictionary;
+
+    @Param({"short", "typed", "full"})
+    public String prefixLengths;
+
+    private BenchmarkDictionary data;
+    private Trie trie;
+    private String alphabet;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new BenchmarkDictionary(dictionary, prefixLengths);
+        trie = new Trie();
+        trie.insertAll(data.getTerms(), data.getWeights(), false);
+        alphabet = data.getAlphabet();
+    }
+
+    @Benchmark
+    public boolean findPrefix() {
+        return trie.find(data.next(), false);
+    }
+
+    @Benchmark
+    public boolean findWord() {
+        return trie.find(data.next(), true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<String> orderedWords() {
+        return trie.orderedWords(alphabet);
+    }
+}